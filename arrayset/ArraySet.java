@@ -3,37 +3,63 @@ package info.kgeorgiy.ja.boin.arrayset;
 import java.util.*;
 
 public class ArraySet<T> extends AbstractSet<T> implements SortedSet<T> {
-    private final List<T> array;
+    private final Object[] elements;
+    private final int from;
+    private final int to;
     private final Comparator<? super T> comparator;
-    private final Comparator<Object> DEFAULT_ORDER = (o1, o2) -> Collections.reverseOrder().reversed().compare(o1, o2);
+    // comparator of search is chosen once, so probes do not check for natural order
+    private final Comparator<Object> order;
 
     public ArraySet(Collection<? extends T> collection) {
         this(collection, null);
     }
 
     public ArraySet(Collection<? extends T> collection, Comparator<? super T> comparator) {
-
-        this.comparator = comparator;
-        Set<T> set = new TreeSet<>(comparator);
-        set.addAll(collection);
-        array = List.copyOf(set);
+        this(sortedArray(collection, comparator), comparator);
     }
 
     public ArraySet(Comparator<? super T> comparator) {
-        this(Collections.emptyList(), comparator);
+        this(new Object[0], 0, 0, comparator);
     }
 
     public ArraySet() {
-        this(Collections.emptyList(), null);
+        this(new Object[0], 0, 0, null);
+    }
+
+    private ArraySet(Object[] elements, Comparator<? super T> comparator) {
+        this(elements, 0, elements.length, comparator);
     }
 
-    private ArraySet(List<T> sortedArray, Comparator<T> comparator) {
-        array = sortedArray;
+    private ArraySet(Object[] elements, int from, int to, Comparator<? super T> comparator) {
+        this.elements = elements;
+        this.from = from;
+        this.to = to;
         this.comparator = comparator;
+        this.order = order(comparator);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Comparator<Object> order(Comparator<?> comparator) {
+        return comparator == null
+                ? (first, second) -> ((Comparable<Object>) first).compareTo(second)
+                : (Comparator<Object>) comparator;
+    }
+
+    private static <T> Object[] sortedArray(Collection<? extends T> collection, Comparator<? super T> comparator) {
+        Set<T> set = new TreeSet<>(comparator);
+        set.addAll(collection);
+        return set.toArray();
+    }
+
+    /**
+     * Wraps first {@code size} elements of sorted array without duplicates, array is not copied
+     */
+    static <T> ArraySet<T> ofSorted(Object[] sortedArray, int size, Comparator<? super T> comparator) {
+        return new ArraySet<>(sortedArray, 0, size, comparator);
     }
 
     public int compare(T first, T second) {
-        return comparator == null ? DEFAULT_ORDER.compare(first, second) : comparator.compare(first, second);
+        return order.compare(first, second);
     }
 
     @Override
@@ -41,17 +67,24 @@ public class ArraySet<T> extends AbstractSet<T> implements SortedSet<T> {
         return comparator;
     }
 
-    private int binarySearch(T element) {
-        return Collections.binarySearch(array, element, this::compare);
-    }
-
-    private int findIndex(T element) {
-        int result = binarySearch(element);
-        return result < 0 ? -(result + 1) : result;
+    /**
+     * Returns index of first element that is not less than given one.
+     * Branch-reduced lower bound: the loop has no data dependent jumps,
+     * so the step is selected by conditional move
+     */
+    private int findIndex(Object element) {
+        int base = from;
+        int n = to - from;
+        while (n > 1) {
+            int half = n >>> 1;
+            base = order.compare(elements[base + half], element) < 0 ? base + half : base;
+            n -= half;
+        }
+        return n == 1 && order.compare(elements[base], element) < 0 ? base + 1 : base;
     }
 
     private SortedSet<T> indexSubSet(int find, int sind) {
-        return new ArraySet<>(array.subList(find, sind), comparator);
+        return new ArraySet<>(elements, find, sind, comparator);
     }
 
     @Override
@@ -64,27 +97,35 @@ public class ArraySet<T> extends AbstractSet<T> implements SortedSet<T> {
 
     @Override
     public SortedSet<T> headSet(T end) {
-        return indexSubSet(0, findIndex(end));
+        return indexSubSet(from, findIndex(end));
     }
 
     @Override
     public SortedSet<T> tailSet(T start) {
-        return indexSubSet(findIndex(start), size());
+        return indexSubSet(findIndex(start), to);
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public T first() {
-        return array.getFirst();
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return (T) elements[from];
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public T last() {
-        return array.getLast();
+        if (isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        return (T) elements[to - 1];
     }
 
     @Override
     public int size() {
-        return array.size();
+        return to - from;
     }
 
     @Override
@@ -95,11 +136,13 @@ public class ArraySet<T> extends AbstractSet<T> implements SortedSet<T> {
     @SuppressWarnings("unchecked")
     @Override
     public boolean contains(Object elem) {
-        return binarySearch((T) elem) >= 0;
+        int index = findIndex(elem);
+        return index < to && compare((T) elements[index], (T) elem) == 0;
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public Iterator<T> iterator() {
-        return array.iterator();
+        return Collections.unmodifiableList((List<T>) Arrays.asList(elements).subList(from, to)).iterator();
     }
 }
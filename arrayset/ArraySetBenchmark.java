@@ -0,0 +1,240 @@
+package info.kgeorgiy.ja.boin.arrayset;
+
+import info.kgeorgiy.ja.boin.benchmark.Benchmarks;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Benchmark of {@link ArraySet} against {@link TreeSet} and sorted array with {@link Arrays#binarySearch}.
+ * Results are printed to standard output in CSV format.
+ * Footprint is heap growth after building from existing keys, so it does not include keys themselves.
+ * Usage: ArraySetBenchmark [sizes...]
+ */
+public class ArraySetBenchmark {
+    private static final int BUILD_ROUNDS = 3;
+    private static final int QUERIES = 1 << 16;
+    private static final int FOOTPRINT_ELEMENTS = 1 << 22;
+
+    private record KeyType<K>(String name, Function<Integer, K> key, Comparator<? super K> comparator) {
+    }
+
+    private static final List<KeyType<?>> KEY_TYPES = List.of(
+            new KeyType<>("Integer", i -> i, null),
+            new KeyType<>("String", i -> String.format("key%09d", i), null),
+            new KeyType<>("Integer-reversed", i -> i, Comparator.<Integer>reverseOrder())
+    );
+
+    /**
+     * Order of input elements or queries
+     */
+    private enum Workload {
+        UNIFORM, SORTED, SKEWED;
+
+        /**
+         * Returns indexes of {@code count} elements in {@code [0, bound)}
+         */
+        int[] indexes(int count, int bound, Random random) {
+            int[] result = new int[count];
+            for (int i = 0; i < count; i++) {
+                result[i] = switch (this) {
+                    case UNIFORM, SORTED -> random.nextInt(bound);
+                    // most queries go to small part of the set
+                    case SKEWED -> (int) (bound * Math.pow(random.nextDouble(), 4));
+                };
+            }
+            if (this == SORTED) {
+                Arrays.sort(result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Sorted collection under test
+     */
+    private interface Subject<K> {
+        boolean contains(K key);
+
+        /**
+         * Creates view of {@code [from, to)} and touches it
+         */
+        int range(K from, K to);
+
+        long iterate();
+    }
+
+    private record Implementation(String name, Builder builder) {
+    }
+
+    private interface Builder {
+        <K> Subject<K> build(List<K> elements, Comparator<? super K> comparator);
+    }
+
+    private static <K> Subject<K> sortedSetSubject(SortedSet<K> set) {
+        return new Subject<>() {
+            @Override
+            public boolean contains(K key) {
+                return set.contains(key);
+            }
+
+            @Override
+            public int range(K from, K to) {
+                return set.subSet(from, to).isEmpty() ? 0 : 1;
+            }
+
+            @Override
+            public long iterate() {
+                long result = 0;
+                for (K key : set) {
+                    result += key.hashCode();
+                }
+                return result;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> Subject<K> arraySubject(List<K> elements, Comparator<? super K> comparator) {
+        K[] array = (K[]) elements.toArray();
+        Arrays.sort(array, comparator);
+        return new Subject<>() {
+            @Override
+            public boolean contains(K key) {
+                return Arrays.binarySearch(array, key, comparator) >= 0;
+            }
+
+            @Override
+            public int range(K from, K to) {
+                int start = Arrays.binarySearch(array, from, comparator);
+                int end = Arrays.binarySearch(array, to, comparator);
+                return (end < 0 ? -(end + 1) : end) - (start < 0 ? -(start + 1) : start) > 0 ? 1 : 0;
+            }
+
+            @Override
+            public long iterate() {
+                long result = 0;
+                for (K key : array) {
+                    result += key.hashCode();
+                }
+                return result;
+            }
+        };
+    }
+
+    private static final List<Implementation> IMPLEMENTATIONS = List.of(
+            new Implementation("ArraySet", new Builder() {
+                @Override
+                public <K> Subject<K> build(List<K> elements, Comparator<? super K> comparator) {
+                    return sortedSetSubject(new ArraySet<>(elements, comparator));
+                }
+            }),
+            new Implementation("TreeSet", new Builder() {
+                @Override
+                public <K> Subject<K> build(List<K> elements, Comparator<? super K> comparator) {
+                    TreeSet<K> set = new TreeSet<>(comparator);
+                    set.addAll(elements);
+                    return sortedSetSubject(set);
+                }
+            }),
+            new Implementation("SortedArray", new Builder() {
+                @Override
+                public <K> Subject<K> build(List<K> elements, Comparator<? super K> comparator) {
+                    return arraySubject(elements, comparator);
+                }
+            })
+    );
+
+    private static <K> List<K> keys(KeyType<K> type, int[] indexes) {
+        List<K> result = new ArrayList<>(indexes.length);
+        for (int index : indexes) {
+            result.add(type.key().apply(index));
+        }
+        return result;
+    }
+
+    private static <K> void run(KeyType<K> type, int size, Random random) {
+        List<K> sorted = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            sorted.add(type.key().apply(i * 2));
+        }
+        if (type.comparator() != null) {
+            sorted.sort(type.comparator());
+        }
+        List<K> shuffled = new ArrayList<>(sorted);
+        Collections.shuffle(shuffled, random);
+
+        for (Implementation implementation : IMPLEMENTATIONS) {
+            for (Workload workload : List.of(Workload.UNIFORM, Workload.SORTED)) {
+                List<K> input = workload == Workload.SORTED ? sorted : shuffled;
+                double nanos = measureBuild(() -> implementation.builder().build(input, type.comparator()));
+                print("construct", implementation, type, workload, size, nanos / size, "ns/element");
+            }
+
+            // small sets are built several times, so heap growth is above measurement noise
+            Object[] copies = new Object[Math.max(1, FOOTPRINT_ELEMENTS / size)];
+            long before = Benchmarks.usedHeap();
+            for (int i = 0; i < copies.length; i++) {
+                copies[i] = implementation.builder().build(shuffled, type.comparator());
+            }
+            long bytes = Benchmarks.usedHeap() - before;
+            print("footprint", implementation, type, Workload.UNIFORM, size,
+                    (double) bytes / copies.length / size, "bytes/element");
+            Benchmarks.consume(copies.length);
+
+            Subject<K> subject = implementation.builder().build(shuffled, type.comparator());
+
+            for (Workload workload : Workload.values()) {
+                List<K> queries = keys(type, workload.indexes(QUERIES, size * 2, random));
+                List<K> ends = keys(type, workload.indexes(QUERIES, size * 2, random));
+                print("contains", implementation, type, workload, size,
+                        Benchmarks.measureEach(QUERIES, i -> subject.contains(queries.get(i)) ? 1 : 0), "ns/op");
+                print("range", implementation, type, workload, size,
+                        Benchmarks.measureEach(QUERIES, i -> {
+                            K from = queries.get(i);
+                            K to = ends.get(i);
+                            return order(type.comparator(), from, to) <= 0 ? subject.range(from, to) : subject.range(to, from);
+                        }), "ns/op");
+            }
+
+            int rounds = Math.max(1, QUERIES / size);
+            print("iterate", implementation, type, Workload.SORTED, size,
+                    Benchmarks.measureEach(rounds, i -> subject.iterate()) / size, "ns/element");
+            Benchmarks.consume(subject.hashCode());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> int order(Comparator<? super K> comparator, K first, K second) {
+        return comparator == null ? ((Comparable<? super K>) first).compareTo(second) : comparator.compare(first, second);
+    }
+
+    private static double measureBuild(Supplier<?> builder) {
+        try {
+            return Benchmarks.measure(1, BUILD_ROUNDS, () -> builder.get().hashCode());
+        } catch (InterruptedException e) {
+            throw new AssertionError("Build can not be interrupted", e);
+        }
+    }
+
+    private static void print(String benchmark, Implementation implementation, KeyType<?> type, Workload workload,
+                              int size, double score, String unit) {
+        System.out.printf(Locale.ROOT, "%s,%s,%s,%s,%d,%.3f,%s%n", benchmark, implementation.name(), type.name(),
+                workload.name().toLowerCase(Locale.ROOT), size, score, unit);
+    }
+
+    public static void main(String[] args) {
+        List<Integer> sizes = args == null || args.length == 0
+                ? List.of(1_000, 100_000, 1_000_000)
+                : Arrays.stream(args).map(Integer::parseInt).toList();
+
+        System.out.println("benchmark,implementation,key,workload,size,score,unit");
+        Random random = new Random(4875);
+        for (KeyType<?> type : KEY_TYPES) {
+            for (int size : sizes) {
+                run(type, size, random);
+            }
+        }
+    }
+}
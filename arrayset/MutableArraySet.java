@@ -0,0 +1,569 @@
+package info.kgeorgiy.ja.boin.arrayset;
+
+import java.util.*;
+
+/**
+ * Mutable sorted set that keeps the read path of {@link ArraySet}.
+ * Inserts and removes are buffered in a small sorted run. Full runs are merged
+ * in log-structured manner: runs of close sizes are merged together
+ * and the biggest run is merged into the base sorted array.
+ * <p>
+ * Iteration, views, {@link #first()} and {@link #last()} merge base array and runs on the fly,
+ * nothing is compacted for them. Taking iterator or view takes O(runs + run size),
+ * {@link #first()} and {@link #last()} take O(runs) and skip removed elements. Iterators and views do not reflect later modifications,
+ * views are read-only, iterator of the set supports {@link Iterator#remove()}.
+ * {@link #snapshot()} is O(1) only if there are no pending runs, otherwise it merges them in O(n).
+ *
+ * @param <T> type of elements
+ */
+public class MutableArraySet<T> extends AbstractSet<T> implements SortedSet<T> {
+    private static final int DEFAULT_RUN_SIZE = 64;
+    private static final int BASE_MERGE_RATIO = 4;
+
+    private final Comparator<? super T> comparator;
+    private final int runSize;
+    private final List<Run> runs = new ArrayList<>();
+    private Run buffer;
+    private Object[] base;
+    private ArraySet<T> baseSet;
+    private int size;
+
+    public MutableArraySet(Collection<? extends T> collection, Comparator<? super T> comparator, int runSize) {
+        if (runSize <= 0) {
+            throw new IllegalArgumentException("Run size should be positive");
+        }
+        this.comparator = comparator;
+        this.runSize = runSize;
+        Set<T> set = new TreeSet<>(comparator);
+        set.addAll(collection);
+        setBase(set.toArray());
+        size = base.length;
+        buffer = new Run(runSize);
+    }
+
+    public MutableArraySet(Collection<? extends T> collection, Comparator<? super T> comparator) {
+        this(collection, comparator, DEFAULT_RUN_SIZE);
+    }
+
+    public MutableArraySet(Collection<? extends T> collection) {
+        this(collection, null);
+    }
+
+    public MutableArraySet(Comparator<? super T> comparator) {
+        this(Collections.emptyList(), comparator);
+    }
+
+    public MutableArraySet() {
+        this(Collections.emptyList(), null);
+    }
+
+    /**
+     * Sorted run of elements, each element is either inserted or removed
+     */
+    private final class Run {
+        private Object[] elements;
+        private boolean[] removed;
+        private int size;
+
+        Run(int capacity) {
+            elements = new Object[capacity];
+            removed = new boolean[capacity];
+        }
+
+        @SuppressWarnings("unchecked")
+        int search(T element) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare((T) elements[mid], element);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        void put(T element, boolean isRemoved) {
+            int index = search(element);
+            if (index >= 0) {
+                removed[index] = isRemoved;
+                return;
+            }
+            index = -(index + 1);
+            if (size == elements.length) {
+                elements = Arrays.copyOf(elements, size * 2);
+                removed = Arrays.copyOf(removed, size * 2);
+            }
+            System.arraycopy(elements, index, elements, index + 1, size - index);
+            System.arraycopy(removed, index, removed, index + 1, size - index);
+            elements[index] = element;
+            removed[index] = isRemoved;
+            size++;
+        }
+
+        void append(Object element, boolean isRemoved) {
+            elements[size] = element;
+            removed[size++] = isRemoved;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(T first, T second) {
+        return comparator == null ? ((Comparable<? super T>) first).compareTo(second) : comparator.compare(first, second);
+    }
+
+    /**
+     * Merges two runs, entries of {@code newer} replace equal entries of {@code older}
+     */
+    @SuppressWarnings("unchecked")
+    private Run merge(Run older, Run newer) {
+        Run result = new Run(older.size + newer.size);
+        int i = 0;
+        int j = 0;
+        while (i < older.size && j < newer.size) {
+            int cmp = compare((T) older.elements[i], (T) newer.elements[j]);
+            if (cmp < 0) {
+                result.append(older.elements[i], older.removed[i++]);
+            } else {
+                if (cmp == 0) {
+                    i++;
+                }
+                result.append(newer.elements[j], newer.removed[j++]);
+            }
+        }
+        while (i < older.size) {
+            result.append(older.elements[i], older.removed[i++]);
+        }
+        while (j < newer.size) {
+            result.append(newer.elements[j], newer.removed[j++]);
+        }
+        return result;
+    }
+
+    private void setBase(Object[] sorted) {
+        base = sorted;
+        baseSet = ArraySet.ofSorted(sorted, sorted.length, comparator);
+    }
+
+    private void write(T element, boolean isRemoved) {
+        buffer.put(element, isRemoved);
+        if (buffer.size < runSize) {
+            return;
+        }
+        runs.add(buffer);
+        buffer = new Run(runSize);
+        while (runs.size() > 1 && runs.getLast().size * 2 >= runs.get(runs.size() - 2).size) {
+            Run newer = runs.removeLast();
+            runs.add(merge(runs.removeLast(), newer));
+        }
+        if (runs.getFirst().size * BASE_MERGE_RATIO >= base.length) {
+            compact();
+        }
+    }
+
+    /**
+     * Merges all runs into base array, removed elements are dropped
+     */
+    @SuppressWarnings("unchecked")
+    private void compact() {
+        if (runs.isEmpty() && buffer.size == 0) {
+            return;
+        }
+        Run run = new Run(0);
+        for (Run older : runs) {
+            run = merge(run, older);
+        }
+        run = merge(run, buffer);
+        runs.clear();
+        buffer = new Run(runSize);
+
+        Object[] merged = new Object[size];
+        int k = 0;
+        int i = 0;
+        int j = 0;
+        while (i < base.length && j < run.size) {
+            int cmp = compare((T) base[i], (T) run.elements[j]);
+            if (cmp < 0) {
+                merged[k++] = base[i++];
+            } else {
+                if (cmp == 0) {
+                    i++;
+                }
+                if (!run.removed[j]) {
+                    merged[k++] = run.elements[j];
+                }
+                j++;
+            }
+        }
+        while (i < base.length) {
+            merged[k++] = base[i++];
+        }
+        for (; j < run.size; j++) {
+            if (!run.removed[j]) {
+                merged[k++] = run.elements[j];
+            }
+        }
+        setBase(merged);
+    }
+
+    /**
+     * Returns immutable {@link ArraySet} with current elements.
+     * Takes O(1) if there are no pending runs, otherwise they are merged into base array in O(n) first
+     *
+     * @return snapshot of this set
+     */
+    public ArraySet<T> snapshot() {
+        compact();
+        return baseSet;
+    }
+
+    @Override
+    public boolean add(T element) {
+        Objects.requireNonNull(element);
+        if (contains(element)) {
+            return false;
+        }
+        size++;
+        write(element, false);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean remove(Object element) {
+        if (!contains(element)) {
+            return false;
+        }
+        size--;
+        write((T) element, true);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        runs.clear();
+        buffer = new Run(runSize);
+        setBase(new Object[0]);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean contains(Object elem) {
+        T element = (T) elem;
+        int index = buffer.search(element);
+        if (index >= 0) {
+            return !buffer.removed[index];
+        }
+        for (int i = runs.size() - 1; i >= 0; i--) {
+            Run run = runs.get(i);
+            index = run.search(element);
+            if (index >= 0) {
+                return !run.removed[index];
+            }
+        }
+        return baseSet.contains(element);
+    }
+
+    @Override
+    public Comparator<? super T> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public SortedSet<T> subSet(T start, T end) {
+        if (compare(start, end) > 0) {
+            throw new IllegalArgumentException("Start element is bigger than end element");
+        }
+        return new View(new Layers(true), start, end);
+    }
+
+    @Override
+    public SortedSet<T> headSet(T end) {
+        return new View(new Layers(true), null, end);
+    }
+
+    @Override
+    public SortedSet<T> tailSet(T start) {
+        return new View(new Layers(true), start, null);
+    }
+
+    @Override
+    public T first() {
+        return new Cursor(new Layers(false), null, null, false, false).next();
+    }
+
+    @Override
+    public T last() {
+        return new Cursor(new Layers(false), null, null, true, false).next();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Cursor(new Layers(true), null, null, false, true);
+    }
+
+    /**
+     * Base array and runs at some moment, oldest first. Base array and full runs are never changed,
+     * so they are shared, buffer is copied unless layers are used at once
+     */
+    private final class Layers {
+        // base array has no removed flags
+        private final Object[][] elements;
+        private final boolean[][] removed;
+        private final int[] sizes;
+
+        Layers(boolean copyBuffer) {
+            int layers = runs.size() + 2;
+            elements = new Object[layers][];
+            removed = new boolean[layers][];
+            sizes = new int[layers];
+            elements[0] = base;
+            sizes[0] = base.length;
+            for (int i = 0; i < runs.size(); i++) {
+                Run run = runs.get(i);
+                elements[i + 1] = run.elements;
+                removed[i + 1] = run.removed;
+                sizes[i + 1] = run.size;
+            }
+            elements[layers - 1] = copyBuffer ? Arrays.copyOf(buffer.elements, buffer.size) : buffer.elements;
+            removed[layers - 1] = copyBuffer ? Arrays.copyOf(buffer.removed, buffer.size) : buffer.removed;
+            sizes[layers - 1] = buffer.size;
+        }
+
+        int count() {
+            return elements.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        T get(int layer, int index) {
+            return (T) elements[layer][index];
+        }
+
+        boolean isRemoved(int layer, int index) {
+            return removed[layer] != null && removed[layer][index];
+        }
+
+        /**
+         * Returns index of the first element of layer that is not less than given one
+         */
+        int lowerBound(int layer, T element) {
+            int low = 0;
+            int high = sizes[layer];
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(get(layer, mid), element) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        boolean contains(T element) {
+            for (int layer = count() - 1; layer >= 0; layer--) {
+                int index = lowerBound(layer, element);
+                if (index < sizes[layer] && compare(get(layer, index), element) == 0) {
+                    return !isRemoved(layer, index);
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Read-only view of elements in {@code [from, to)} of layers, {@code null} bound is unbounded.
+     * Size is counted on the first call
+     */
+    private final class View extends AbstractSet<T> implements SortedSet<T> {
+        private final Layers layers;
+        private final T from;
+        private final T to;
+        private int size = -1;
+
+        View(Layers layers, T from, T to) {
+            this.layers = layers;
+            this.from = from;
+            this.to = to;
+        }
+
+        private boolean inRange(T element) {
+            return (from == null || compare(element, from) >= 0) && (to == null || compare(element, to) < 0);
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return new Cursor(layers, from, to, false, false);
+        }
+
+        @Override
+        public int size() {
+            if (size < 0) {
+                int count = 0;
+                for (Iterator<T> it = iterator(); it.hasNext(); it.next()) {
+                    count++;
+                }
+                size = count;
+            }
+            return size;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return !iterator().hasNext();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public boolean contains(Object elem) {
+            T element = (T) elem;
+            return inRange(element) && layers.contains(element);
+        }
+
+        @Override
+        public Comparator<? super T> comparator() {
+            return comparator;
+        }
+
+        @Override
+        public SortedSet<T> subSet(T start, T end) {
+            if (compare(start, end) > 0) {
+                throw new IllegalArgumentException("Start element is bigger than end element");
+            }
+            return headSet(end).tailSet(start);
+        }
+
+        @Override
+        public SortedSet<T> headSet(T end) {
+            return new View(layers, from, to == null || compare(end, to) < 0 ? end : to);
+        }
+
+        @Override
+        public SortedSet<T> tailSet(T start) {
+            return new View(layers, from == null || compare(start, from) > 0 ? start : from, to);
+        }
+
+        @Override
+        public T first() {
+            return new Cursor(layers, from, to, false, false).next();
+        }
+
+        @Override
+        public T last() {
+            return new Cursor(layers, from, to, true, false).next();
+        }
+    }
+
+    /**
+     * Walks layers together in {@code [from, to)}, status of an element is taken from the newest layer that has it
+     */
+    private final class Cursor implements Iterator<T> {
+        private final Layers layers;
+        private final int[] lows;
+        private final int[] highs;
+        private final int[] positions;
+        private final boolean descending;
+        private final boolean removable;
+        private T next;
+        private T last;
+
+        /**
+         * @param removable whether {@link #remove()} removes element from the set
+         */
+        Cursor(Layers layers, T from, T to, boolean descending, boolean removable) {
+            this.layers = layers;
+            this.descending = descending;
+            this.removable = removable;
+            int count = layers.count();
+            lows = new int[count];
+            highs = new int[count];
+            positions = new int[count];
+            for (int i = 0; i < count; i++) {
+                lows[i] = from == null ? 0 : layers.lowerBound(i, from);
+                highs[i] = to == null ? layers.sizes[i] : layers.lowerBound(i, to);
+                positions[i] = descending ? highs[i] - 1 : lows[i];
+            }
+            advance();
+        }
+
+        private boolean hasCurrent(int layer) {
+            return descending ? positions[layer] >= lows[layer] : positions[layer] < highs[layer];
+        }
+
+        /**
+         * Finds next present element in walk order
+         */
+        private void advance() {
+            while (true) {
+                T best = null;
+                boolean present = false;
+                for (int i = 0; i < layers.count(); i++) {
+                    if (hasCurrent(i)) {
+                        T current = layers.get(i, positions[i]);
+                        int cmp = best == null ? -1 : compare(current, best) * (descending ? -1 : 1);
+                        if (cmp <= 0) {
+                            best = current;
+                            present = !layers.isRemoved(i, positions[i]);
+                        }
+                    }
+                }
+                if (best == null) {
+                    next = null;
+                    return;
+                }
+                for (int i = 0; i < layers.count(); i++) {
+                    if (hasCurrent(i) && compare(layers.get(i, positions[i]), best) == 0) {
+                        positions[i] += descending ? -1 : 1;
+                    }
+                }
+                if (present) {
+                    next = best;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            advance();
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            if (!removable) {
+                throw new UnsupportedOperationException("View is read-only");
+            }
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            MutableArraySet.this.remove(last);
+            last = null;
+        }
+    }
+}
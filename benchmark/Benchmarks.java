@@ -0,0 +1,103 @@
+package info.kgeorgiy.ja.boin.benchmark;
+
+import java.util.function.IntToLongFunction;
+
+/**
+ * Dependency-free runner shared by benchmarks of all modules.
+ * Every round returns a value that depends on its work. Values are consumed by a volatile write,
+ * so JIT can not drop the work and nothing has to be printed
+ */
+public final class Benchmarks {
+    public static final int WARMUP_ROUNDS = 5;
+    public static final int MEASURE_ROUNDS = 10;
+    private static final int GC_RUNS = 3;
+
+    private static volatile long sink;
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Single round of a benchmark
+     */
+    @FunctionalInterface
+    public interface Round {
+        /**
+         * Runs the work once
+         *
+         * @return value that depends on the work
+         */
+        long run() throws InterruptedException;
+    }
+
+    /**
+     * Keeps value alive, so the work that computed it is not eliminated
+     */
+    public static void consume(long value) {
+        sink ^= value;
+    }
+
+    /**
+     * Runs round given number of times without measuring it
+     */
+    public static void warmUp(int rounds, Round round) throws InterruptedException {
+        for (int i = 0; i < rounds; i++) {
+            consume(round.run());
+        }
+    }
+
+    /**
+     * Returns mean time of a round in nanoseconds, round should be warmed up
+     */
+    public static double measure(int rounds, Round round) throws InterruptedException {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            consume(round.run());
+        }
+        return (double) (System.nanoTime() - start) / rounds;
+    }
+
+    /**
+     * Warms round up and returns mean time of a round in nanoseconds
+     */
+    public static double measure(int warmUpRounds, int rounds, Round round) throws InterruptedException {
+        warmUp(warmUpRounds, round);
+        return measure(rounds, round);
+    }
+
+    /**
+     * Same as {@link #measure(int, int, Round)} with default number of rounds
+     */
+    public static double measure(Round round) throws InterruptedException {
+        return measure(WARMUP_ROUNDS, MEASURE_ROUNDS, round);
+    }
+
+    /**
+     * Returns mean time in nanoseconds of {@code operation} applied to {@code 0 .. operations - 1}.
+     * Results are summed in a local, so consuming them costs nothing per operation
+     */
+    public static double measureEach(int operations, IntToLongFunction operation) {
+        try {
+            return measure(() -> {
+                long result = 0;
+                for (int i = 0; i < operations; i++) {
+                    result += operation.applyAsLong(i);
+                }
+                return result;
+            }) / operations;
+        } catch (InterruptedException e) {
+            throw new AssertionError("Operation can not be interrupted", e);
+        }
+    }
+
+    /**
+     * Returns used heap after several full garbage collections
+     */
+    public static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < GC_RUNS; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,110 @@
+package info.kgeorgiy.ja.boin.crawler;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent blocked Bloom filter of urls. All bits of a url are in a single word, chosen by one half of its hash,
+ * while bits in the word are taken from the other half. Bits are set by a single compare-and-set without locks,
+ * so only one of concurrent adds of the same url reports it as new.
+ * Blocked filter needs more bits than classic one for the same false positive rate, about 12 bits per url
+ * for 1% and 24 for 0.1%, so size and number of hashes are found from false positive rate of a word,
+ * where number of urls is Poisson distributed. For rates much below 0.1% fingerprints take less memory
+ */
+class BloomUrls implements SeenUrls {
+    private static final int POSITION_BITS = 6;
+    private static final int POSITIONS_PER_HASH = Long.SIZE / POSITION_BITS;
+    private static final int MAX_HASHES = 24;
+    private static final double GROWTH = 1.05;
+    private static final int MAX_WORDS = Integer.MAX_VALUE - 8;
+
+    private final AtomicLongArray words;
+    private final int hashes;
+
+    BloomUrls(long expectedUrls, double falsePositiveRate) {
+        if (expectedUrls <= 0) {
+            throw new IllegalArgumentException("Expected number of urls should be positive");
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False positive rate should be in (0, 1)");
+        }
+        double ln2 = Math.log(2);
+        // classic filter is the lower bound
+        double wordCount = Math.ceil(-expectedUrls * Math.log(falsePositiveRate) / (ln2 * ln2) / Long.SIZE);
+        int bestHashes;
+        while (true) {
+            double urlsPerWord = expectedUrls / wordCount;
+            double best = Double.POSITIVE_INFINITY;
+            bestHashes = 1;
+            // rate decreases up to the best number of hashes and increases after it
+            for (int k = 1; k <= MAX_HASHES; k++) {
+                double rate = falsePositiveRate(urlsPerWord, k);
+                if (rate >= best) {
+                    break;
+                }
+                best = rate;
+                bestHashes = k;
+            }
+            if (best <= falsePositiveRate || wordCount >= MAX_WORDS) {
+                break;
+            }
+            wordCount = Math.min(Math.ceil(wordCount * GROWTH), MAX_WORDS);
+        }
+        words = new AtomicLongArray((int) Math.max(1, wordCount));
+        hashes = bestHashes;
+    }
+
+    /**
+     * False positive rate of a word with given mean number of urls.
+     * Distribution of the number of set bits is followed exactly, as their mean underestimates the rate
+     */
+    private static double falsePositiveRate(double urlsPerWord, int hashes) {
+        double[] setBits = new double[Long.SIZE + 1];
+        setBits[0] = 1;
+        double rate = 0;
+        double probability = Math.exp(-urlsPerWord);
+        for (int urls = 0; urls < urlsPerWord * 4 + Long.SIZE; urls++) {
+            double query = 0;
+            for (int bits = 0; bits <= Long.SIZE; bits++) {
+                query += setBits[bits] * Math.pow((double) bits / Long.SIZE, hashes);
+            }
+            rate += probability * query;
+            probability *= urlsPerWord / (urls + 1);
+            // every position of the next url hits set bit or sets a new one
+            for (int i = 0; i < hashes; i++) {
+                for (int bits = Long.SIZE; bits > 0; bits--) {
+                    setBits[bits] = setBits[bits] * bits / Long.SIZE
+                            + setBits[bits - 1] * (Long.SIZE - bits + 1) / Long.SIZE;
+                }
+                setBits[0] = 0;
+            }
+        }
+        return rate;
+    }
+
+    @Override
+    public boolean add(String url) {
+        long[] hash = UrlHash.hash(url, UrlHash.SEED);
+        int index = (int) Long.remainderUnsigned(hash[0], words.length());
+        long mask = mask(hash[1]);
+        while (true) {
+            long word = words.get(index);
+            if ((word & mask) == mask) {
+                return false;
+            }
+            if (words.compareAndSet(index, word, word | mask)) {
+                return true;
+            }
+        }
+    }
+
+    private long mask(long hash) {
+        long mask = 0;
+        for (int i = 0; i < hashes; i++) {
+            if (i > 0 && i % POSITIONS_PER_HASH == 0) {
+                hash = UrlHash.mix(hash + UrlHash.SEED);
+            }
+            mask |= 1L << (hash >>> (i % POSITIONS_PER_HASH * POSITION_BITS));
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,301 @@
+package info.kgeorgiy.ja.boin.crawler;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only log of a level by level crawl. Crawl threads only put events to a bounded queue,
+ * a single writer thread appends them to the file and forces it to disk every {@link #FORCE_INTERVAL_MS}.
+ * Crawl threads wait while the queue is full, so slow disk slows crawl down instead of filling the heap.
+ * Success of a page is logged after all its links, so every complete prefix of the log is a consistent state.
+ * Every record is prefixed by its length, incomplete record at the end is dropped on resume
+ */
+class CrawlCheckpoint implements Closeable {
+    private static final long FORCE_INTERVAL_MS = 1000;
+    private static final int QUEUE_CAPACITY = 1 << 16;
+
+    private static final byte HEADER = 'H';
+    private static final byte DISCOVERED = 'K';
+    private static final byte SUCCEEDED = 'S';
+    private static final byte FAILED = 'F';
+    private static final Event CLOSE = new Event(HEADER, null, 0, null);
+
+    private record Event(byte type, String url, int depth, String message) {
+    }
+
+    final String url;
+    final int depthLimit;
+    final List<String> excludes;
+    final Set<String> successes = ConcurrentHashMap.newKeySet();
+    final Map<String, IOException> failures = new ConcurrentHashMap<>();
+    // urls that were discovered, but not downloaded yet, by depth
+    final List<Queue<String>> pending = new ArrayList<>();
+
+    private final FileChannel channel;
+    private final DataOutputStream out;
+    private final BlockingQueue<Event> events = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private volatile IOException writeError;
+
+    private CrawlCheckpoint(String url, int depthLimit, List<String> excludes, FileChannel channel) {
+        this.url = url;
+        this.depthLimit = depthLimit;
+        this.excludes = excludes;
+        this.channel = channel;
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        for (int depth = 0; depth < depthLimit; depth++) {
+            pending.add(new ConcurrentLinkedQueue<>());
+        }
+        writer = new Thread(this::write, "crawl-checkpoint");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Creates new log for a crawl, overwriting existing file.
+     * Start url is written together with the header, so log never loses it
+     *
+     * @param started whether start url is going to be downloaded
+     */
+    static CrawlCheckpoint create(Path file, String url, int depthLimit, List<String> excludes, boolean started)
+            throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            CrawlCheckpoint checkpoint = new CrawlCheckpoint(url, depthLimit, List.copyOf(excludes), channel);
+            checkpoint.writeHeader();
+            if (started) {
+                checkpoint.pending.getFirst().add(url);
+                checkpoint.writeEvent(new Event(DISCOVERED, url, 0, null));
+            }
+            checkpoint.force();
+            checkpoint.writer.start();
+            return checkpoint;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads crawl state from the log and continues it. Discovered urls are added to {@code knownUrls}
+     */
+    static CrawlCheckpoint resume(Path file, SeenUrls knownUrls) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            byte[] headerBytes = readRecord(in);
+            if (headerBytes == null || headerBytes[0] != HEADER) {
+                throw new IOException("Not a crawl checkpoint: " + file);
+            }
+            DataInputStream header = new DataInputStream(new ByteArrayInputStream(headerBytes));
+            header.readByte();
+            String url = readString(header);
+            int depthLimit = header.readInt();
+            List<String> excludes = new ArrayList<>();
+            for (int i = header.readInt(); i > 0; i--) {
+                excludes.add(readString(header));
+            }
+            CrawlCheckpoint checkpoint = new CrawlCheckpoint(url, depthLimit, List.copyOf(excludes), channel);
+
+            long valid = Integer.BYTES + headerBytes.length;
+            Map<String, Integer> discovered = new HashMap<>();
+            for (byte[] bytes; (bytes = readRecord(in)) != null; ) {
+                valid += Integer.BYTES + bytes.length;
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+                byte type = record.readByte();
+                String recordUrl = readString(record);
+                switch (type) {
+                    case DISCOVERED -> {
+                        int depth = record.readInt();
+                        if (depth < 0 || depth >= depthLimit) {
+                            throw new IOException("Invalid depth " + depth + " in checkpoint " + file);
+                        }
+                        discovered.put(recordUrl, depth);
+                        knownUrls.add(recordUrl);
+                    }
+                    case SUCCEEDED -> {
+                        discovered.remove(recordUrl);
+                        checkpoint.successes.add(recordUrl);
+                    }
+                    case FAILED -> {
+                        discovered.remove(recordUrl);
+                        checkpoint.failures.put(recordUrl, new IOException(readString(record)));
+                    }
+                    default -> throw new IOException("Unknown checkpoint record " + type);
+                }
+            }
+            discovered.forEach((pendingUrl, depth) -> checkpoint.pending.get(depth).add(pendingUrl));
+
+            // drop incomplete record, if write was interrupted
+            channel.truncate(valid);
+            channel.position(valid);
+            checkpoint.writer.start();
+            return checkpoint;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Logs that url is going to be downloaded at given depth
+     */
+    void discovered(String url, int depth) {
+        log(new Event(DISCOVERED, url, depth, null));
+    }
+
+    /**
+     * Logs that url is downloaded and all its links are logged
+     */
+    void succeeded(String url) {
+        log(new Event(SUCCEEDED, url, 0, null));
+    }
+
+    void failed(String url, IOException e) {
+        log(new Event(FAILED, url, 0, String.valueOf(e.getMessage())));
+    }
+
+    /**
+     * Queues event, unless writer has failed and nothing is written anymore.
+     * Interrupted thread stops the log, as the events after a lost one would not be consistent
+     */
+    private void log(Event event) {
+        try {
+            enqueue(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writeError = new InterruptedIOException("Checkpoint event is lost by interruption");
+        }
+    }
+
+    /**
+     * Waits until event is queued, or writer has failed
+     */
+    private void enqueue(Event event) throws InterruptedException {
+        while (writeError == null) {
+            if (events.offer(event, FORCE_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes remaining events and closes the log
+     *
+     * @throws IOException if any event was not written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            enqueue(CLOSE);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writer.interrupt();
+        }
+        channel.close();
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+
+    private void write() {
+        try {
+            long lastForce = System.nanoTime();
+            // log is also stopped by a crawl thread that lost its event
+            while (writeError == null) {
+                Event event = events.poll(FORCE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (event == CLOSE) {
+                    break;
+                }
+                if (event != null) {
+                    writeEvent(event);
+                }
+                if (System.nanoTime() - lastForce >= TimeUnit.MILLISECONDS.toNanos(FORCE_INTERVAL_MS)) {
+                    force();
+                    lastForce = System.nanoTime();
+                }
+            }
+            force();
+        } catch (IOException e) {
+            writeError = e;
+        } catch (InterruptedException e) {
+            writeError = new InterruptedIOException("Checkpoint writer is interrupted");
+        }
+        // events queued before the error was seen
+        events.clear();
+    }
+
+    private void force() throws IOException {
+        out.flush();
+        channel.force(false);
+    }
+
+    private void writeHeader() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(HEADER);
+        writeString(record, url);
+        record.writeInt(depthLimit);
+        record.writeInt(excludes.size());
+        for (String exclude : excludes) {
+            writeString(record, exclude);
+        }
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    private void writeEvent(Event event) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(event.type);
+        writeString(record, event.url);
+        if (event.type == DISCOVERED) {
+            record.writeInt(event.depth);
+        } else if (event.type == FAILED) {
+            writeString(record, event.message);
+        }
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    /**
+     * Returns record without its length, or {@code null} if there is no complete record
+     */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        byte[] record;
+        try {
+            int length = in.readInt();
+            if (length <= 0) {
+                return null;
+            }
+            record = in.readNBytes(length);
+            if (record.length < length) {
+                return null;
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+        return record;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,29 @@
+package info.kgeorgiy.ja.boin.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.Result;
+
+import java.io.IOException;
+import java.io.Serial;
+
+/**
+ * Checkpoint of a crawl could not be completed, while the crawl itself has finished.
+ * Result of the crawl is kept, only resuming from the checkpoint is not possible
+ */
+public class CrawlCheckpointException extends IOException {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final transient Result result;
+
+    CrawlCheckpointException(Result result, IOException cause) {
+        super("Crawl is finished, but its checkpoint is not written: " + cause.getMessage(), cause);
+        this.result = result;
+    }
+
+    /**
+     * Returns result of the finished crawl
+     */
+    public Result getResult() {
+        return result;
+    }
+}
@@ -0,0 +1,98 @@
+package info.kgeorgiy.ja.boin.crawler;
+
+import info.kgeorgiy.ja.boin.benchmark.Benchmarks;
+import info.kgeorgiy.java.advanced.crawler.Document;
+import info.kgeorgiy.java.advanced.crawler.Downloader;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.*;
+
+/**
+ * Peak heap of {@link WebCrawler} on a wide synthetic site, where every page holds a payload.
+ * Live heap is sampled by full garbage collections while crawler runs, so documents that are kept are counted,
+ * but garbage is not. Usage: CrawlerMemoryBenchmark [width [payloadKiB [maxDocuments...]]]
+ */
+public class CrawlerMemoryBenchmark {
+    private static final int HOSTS = 16;
+    private static final int DEPTH = 3;
+    private static final long SAMPLE_MILLIS = 50;
+
+    private static volatile long peak;
+
+    private record Page(byte[] payload, List<String> links) implements Document {
+        @Override
+        public List<String> extractLinks() {
+            // touches payload like a parser would
+            long hash = 0;
+            for (byte b : payload) {
+                hash = hash * 31 + b;
+            }
+            return hash == 42 ? List.of() : links;
+        }
+    }
+
+    private static String url(int level, int index) {
+        return "http://h" + index % HOSTS + ".bench/" + level + "/" + index;
+    }
+
+    /**
+     * Page of level {@code l} links to {@code width} pages of level {@code l + 1}
+     */
+    private static Downloader downloader(int width, int payload) {
+        return url -> {
+            String[] parts = url.split("/");
+            int level = Integer.parseInt(parts[3]);
+            List<String> links = new ArrayList<>(width);
+            for (int i = 0; i < width; i++) {
+                links.add(url(level + 1, i));
+            }
+            byte[] bytes = new byte[payload];
+            Arrays.fill(bytes, (byte) level);
+            return new Page(bytes, links);
+        };
+    }
+
+    private static Thread sampler() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        Thread sampler = new Thread(() -> {
+            while (!Thread.interrupted()) {
+                memory.gc();
+                peak = Math.max(peak, memory.getHeapMemoryUsage().getUsed());
+                try {
+                    Thread.sleep(SAMPLE_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        sampler.setDaemon(true);
+        return sampler;
+    }
+
+    public static void main(String[] args) {
+        int width = args != null && args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        int payload = (args != null && args.length > 1 ? Integer.parseInt(args[1]) : 64) * 1024;
+        List<Integer> limits = args != null && args.length > 2
+                ? Arrays.stream(args).skip(2).map(Integer::parseInt).toList()
+                : List.of(Integer.MAX_VALUE, 256, 32);
+
+        for (int limit : limits) {
+            for (boolean pipelined : List.of(false, true)) {
+                long base = Benchmarks.usedHeap();
+                peak = base;
+                Thread sampler = sampler();
+                sampler.start();
+                long start = System.nanoTime();
+                int downloaded;
+                try (WebCrawler crawler = new WebCrawler(downloader(width, payload), 8, 2, HOSTS, pipelined, limit)) {
+                    downloaded = crawler.download(url(0, 0), DEPTH).getDownloaded().size();
+                }
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                sampler.interrupt();
+                System.out.printf(Locale.ROOT, "%-10s maxDocuments=%-10d %6d pages %8.1f MiB peak %8d ms%n",
+                        pipelined ? "pipelined" : "levels", limit, downloaded, (peak - base) / 1048576.0, millis);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package info.kgeorgiy.ja.boin.crawler;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Permits for documents that are scheduled for download, but not extracted yet.
+ * Permit is taken before download is submitted, so download threads never wait for it.
+ * Threads that must not block, like extract ones, leave their task in the queue,
+ * and it is started by the thread that releases the next permit
+ */
+class DocumentPermits {
+    private final Semaphore permits;
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+
+    DocumentPermits(int count) {
+        permits = new Semaphore(count);
+    }
+
+    /**
+     * Waits for a permit
+     */
+    void acquire() throws InterruptedException {
+        permits.acquire();
+    }
+
+    /**
+     * Runs task with a permit now, or queues it until some permit is released
+     */
+    void runWithPermit(Runnable task) {
+        waiting.add(task);
+        runWaiting();
+    }
+
+    void release() {
+        permits.release();
+        runWaiting();
+    }
+
+    /**
+     * Task is queued before permit is tried, and permit is released before queue is checked,
+     * so queued task is never left while permit is free
+     */
+    private void runWaiting() {
+        while (!waiting.isEmpty() && permits.tryAcquire()) {
+            Runnable task = waiting.poll();
+            if (task == null) {
+                permits.release();
+            } else {
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package info.kgeorgiy.ja.boin.crawler;
+
+/**
+ * Exact set of 64 or 128-bit url fingerprints, that are halves or whole of MurmurHash3_x64_128 of url. Fingerprints are split between segments by their high bits,
+ * every segment is an open addressing table with linear probing in a single {@code long[]} under its own lock.
+ * Zero fingerprint marks empty slot, so it is replaced by one
+ */
+class FingerprintUrls implements SeenUrls {
+    private static final int SEGMENT_BITS = 6;
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    private final boolean wide;
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    FingerprintUrls(boolean wide) {
+        this.wide = wide;
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(wide ? 2 : 1);
+        }
+    }
+
+    @Override
+    public boolean add(String url) {
+        long[] hash = UrlHash.hash(url, UrlHash.SEED);
+        long high = hash[0];
+        long low = wide ? hash[1] : 0;
+        if (high == 0 && low == 0) {
+            high = 1;
+        }
+        Segment segment = segments[(int) (high >>> (Long.SIZE - SEGMENT_BITS))];
+        synchronized (segment) {
+            return segment.add(high, low);
+        }
+    }
+
+    /**
+     * Table of fingerprints, every slot takes {@code width} longs
+     */
+    private static final class Segment {
+        private final int width;
+        private long[] table;
+        private int size;
+
+        Segment(int width) {
+            this.width = width;
+            table = new long[INITIAL_CAPACITY * width];
+        }
+
+        private int capacity() {
+            return table.length / width;
+        }
+
+        boolean add(long high, long low) {
+            if (!insert(table, high, low)) {
+                return false;
+            }
+            if (++size * 4L > capacity() * 3L) {
+                resize();
+            }
+            return true;
+        }
+
+        /**
+         * Puts fingerprint to the first free slot after its home one
+         *
+         * @return {@code false} if fingerprint is already present
+         */
+        private boolean insert(long[] table, long high, long low) {
+            int mask = table.length / width - 1;
+            // low bits of high part are not used to choose segment
+            for (int slot = (int) high & mask; ; slot = (slot + 1) & mask) {
+                int i = slot * width;
+                if (table[i] == 0 && (width == 1 || table[i + 1] == 0)) {
+                    table[i] = high;
+                    if (width == 2) {
+                        table[i + 1] = low;
+                    }
+                    return true;
+                }
+                if (table[i] == high && (width == 1 || table[i + 1] == low)) {
+                    return false;
+                }
+            }
+        }
+
+        private void resize() {
+            long[] old = table;
+            table = new long[old.length * 2];
+            for (int i = 0; i < old.length; i += width) {
+                if (old[i] != 0 || width == 2 && old[i + 1] != 0) {
+                    insert(table, old[i], width == 2 ? old[i + 1] : 0);
+                }
+            }
+        }
+    }
+}
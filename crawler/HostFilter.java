@@ -0,0 +1,103 @@
+package info.kgeorgiy.ja.boin.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.URLUtils;
+
+import java.net.MalformedURLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checks that host of url contains none of excluded substrings.
+ * Excludes are compiled to a single automaton, verdicts are cached for every host.
+ * Full cache is cleared, so it keeps hosts of the current part of the crawl and never grows
+ * beyond its limit by more than the number of concurrent callers
+ */
+class HostFilter {
+    private static final int MAX_CACHED_HOSTS = 1 << 16;
+    private static final int MAX_PORT = 65535;
+    private static final int MAX_PORT_DIGITS = 5;
+
+    private final SubstringMatcher excluded;
+    private final Map<String, Boolean> verdicts = new ConcurrentHashMap<>();
+
+    HostFilter(List<String> excludes) {
+        excluded = new SubstringMatcher(excludes);
+    }
+
+    /**
+     * Returns whether url is valid and its host contains no excluded substring
+     */
+    boolean isSuitable(String url) {
+        String host;
+        try {
+            host = getHost(url);
+        } catch (MalformedURLException e) {
+            return false;
+        }
+        Boolean verdict = verdicts.get(host);
+        if (verdict == null) {
+            verdict = !excluded.matches(host);
+            if (verdicts.size() >= MAX_CACHED_HOSTS) {
+                verdicts.clear();
+            }
+            verdicts.put(host, verdict);
+        }
+        return verdict;
+    }
+
+    /**
+     * Same as {@link URLUtils#getHost}, but http and https urls are parsed without {@link java.net.URL}.
+     * Other urls, and urls with user info, ports out of {@code [0, 65535]} or chars that {@code URL} treats specially,
+     * are passed to {@link URLUtils#getHost}
+     */
+    static String getHost(String url) throws MalformedURLException {
+        int start = authorityStart(url);
+        if (start < 0) {
+            return URLUtils.getHost(url);
+        }
+        int end = start;
+        int hostEnd = -1;
+        int port = 0;
+        while (end < url.length()) {
+            char c = url.charAt(end);
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+            if (c == ':' && hostEnd < 0) {
+                hostEnd = end;
+            } else if (hostEnd >= 0 && (c < '0' || c > '9') || !isPlainHostChar(c)) {
+                // user info, IPv6 address, escapes or invalid port
+                return URLUtils.getHost(url);
+            } else if (hostEnd >= 0) {
+                port = port * 10 + (c - '0');
+                if (end - hostEnd > MAX_PORT_DIGITS || port > MAX_PORT) {
+                    // URL decides whether such port is valid
+                    return URLUtils.getHost(url);
+                }
+            }
+            end++;
+        }
+        return url.substring(start, hostEnd < 0 ? end : hostEnd);
+    }
+
+    private static boolean isPlainHostChar(char c) {
+        return c > ' ' && c < 0x80 && c != '@' && c != '[' && c != ']' && c != '\\' && c != '%';
+    }
+
+    /**
+     * Returns index after {@code http://} or {@code https://} prefix, or -1 if url should be parsed by {@code URL}
+     */
+    private static int authorityStart(String url) {
+        int length = url.length();
+        if (length == 0 || url.charAt(length - 1) <= ' ') {
+            return -1;
+        }
+        if (url.regionMatches(true, 0, "http://", 0, 7)) {
+            return 7;
+        } else if (url.regionMatches(true, 0, "https://", 0, 8)) {
+            return 8;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,102 @@
+package info.kgeorgiy.ja.boin.crawler;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks on given executor with limited number of running tasks for every host.
+ * Tasks over the limit wait in the queue of their host, not in the executor,
+ * so executor threads are always busy with hosts that are below the limit
+ */
+class HostScheduler {
+    private final Executor executor;
+    private final int perHost;
+    // host is present while it has running tasks, all its state is changed inside compute
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+    private static final class Host {
+        private final Queue<Runnable> waiting = new ArrayDeque<>();
+        private int running;
+    }
+
+    HostScheduler(Executor executor, int perHost) {
+        if (perHost <= 0) {
+            throw new IllegalArgumentException("Limit per host should be positive");
+        }
+        this.executor = executor;
+        this.perHost = perHost;
+    }
+
+    /**
+     * Runs task as soon as there are less than {@code perHost} running tasks for its host
+     *
+     * @throws RejectedExecutionException if executor is shut down
+     */
+    void submit(String host, Runnable task) {
+        // executor may run the task in place, so it is not called inside compute
+        Runnable[] ready = new Runnable[1];
+        hosts.compute(host, (name, state) -> {
+            if (state == null) {
+                state = new Host();
+            }
+            if (state.running < perHost) {
+                state.running++;
+                ready[0] = task;
+            } else {
+                state.waiting.add(task);
+            }
+            return state;
+        });
+        if (ready[0] != null) {
+            try {
+                execute(host, ready[0]);
+            } catch (RejectedExecutionException e) {
+                runNext(host);
+                throw e;
+            }
+        }
+    }
+
+    private void execute(String host, Runnable task) {
+        executor.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                runNext(host);
+            }
+        });
+    }
+
+    /**
+     * Gives the slot of finished task to the next waiting task of the host.
+     * If executor is shut down, waiting tasks are dropped
+     */
+    private void runNext(String host) {
+        for (Runnable next = release(host); next != null; next = release(host)) {
+            try {
+                execute(host, next);
+                return;
+            } catch (RejectedExecutionException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Returns next waiting task of the host, that takes the released slot, or frees the slot
+     */
+    private Runnable release(String host) {
+        Runnable[] next = new Runnable[1];
+        hosts.compute(host, (name, state) -> {
+            next[0] = state.waiting.poll();
+            if (next[0] == null && --state.running == 0) {
+                return null;
+            }
+            return state;
+        });
+        return next[0];
+    }
+}
@@ -0,0 +1,350 @@
+package info.kgeorgiy.ja.boin.crawler;
+
+import info.kgeorgiy.java.advanced.crawler.Document;
+import info.kgeorgiy.java.advanced.crawler.Downloader;
+import info.kgeorgiy.java.advanced.crawler.Result;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Single crawl without barriers between depth levels: page is downloaded as soon as it is found
+ * and its links are extracted as soon as it is downloaded.
+ * Every page keeps remaining depth of the shortest known path to it. Page may be found by longer path first,
+ * then it is upgraded when shorter one is found and its links are pushed again with greater depth,
+ * so result is the same set of pages as level by level crawl gives.
+ * Links of pages that may be upgraded are kept, so no page is downloaded twice.
+ * Page with remaining depth {@code r} may be upgraded only by pages with remaining depth at least {@code r + 2},
+ * so levels become final from the top as greater levels are finished, and kept links of final levels are released.
+ * State of a page is forgotten as soon as it is done and its level is final, {@link SeenUrls} still knows it.
+ * Document is released as soon as its links are extracted.
+ * Interrupted crawl skips downloads that are not started and returns pages processed so far
+ */
+class PipelinedCrawl {
+    private final Downloader downloader;
+    private final HostScheduler hostScheduler;
+    private final ExecutorService extractService;
+    private final DocumentPermits documentPermits;
+    private final Predicate<String> suitableHost;
+    private final SeenUrls seenUrls;
+    private final int depthLimit;
+
+    // pages that are not done yet or may be upgraded
+    private final Map<String, Page> pages = new ConcurrentHashMap<>();
+    private final Set<String> successes = ConcurrentHashMap.newKeySet();
+    private final Map<String, IOException> failures = new ConcurrentHashMap<>();
+    // caller holds one task until all start pages are submitted
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    // unfinished[r] is number of not done pages with remaining depth r and running pushes of such pages
+    private final AtomicInteger[] unfinished;
+    // holding[r] are pages with remaining depth r that may keep links
+    private final List<Queue<Page>> holding;
+    // pages with remaining depth less than this one may be upgraded
+    private volatile int upgradableBelow;
+    private volatile boolean cancelled;
+
+    /**
+     * State of a found page, guarded by its monitor
+     */
+    private static final class Page {
+        private final String url;
+        private int remaining;
+        // depth links were pushed with, zero if they were not pushed
+        private int pushed;
+        private boolean extracted;
+        // page is counted in unfinished until it is extracted, or its download fails
+        private boolean done;
+        // kept only while page may be upgraded
+        private List<String> links;
+
+        Page(String url, int remaining) {
+            this.url = url;
+            this.remaining = remaining;
+        }
+    }
+
+    /**
+     * @param documentPermits permit is taken before download is submitted and returned after extraction
+     * @param seenUrls        decides whether url is new, so approximate set skips pages like in level by level crawl
+     */
+    PipelinedCrawl(Downloader downloader, HostScheduler hostScheduler, ExecutorService extractService,
+                   DocumentPermits documentPermits, Predicate<String> suitableHost, SeenUrls seenUrls, int depthLimit) {
+        this.downloader = downloader;
+        this.hostScheduler = hostScheduler;
+        this.extractService = extractService;
+        this.documentPermits = documentPermits;
+        this.suitableHost = suitableHost;
+        this.seenUrls = seenUrls;
+        this.depthLimit = depthLimit;
+        upgradableBelow = depthLimit - 1;
+        unfinished = new AtomicInteger[Math.max(depthLimit, 0) + 1];
+        holding = new ArrayList<>(unfinished.length);
+        for (int i = 0; i < unfinished.length; i++) {
+            unfinished[i] = new AtomicInteger();
+            holding.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    Result run(String url) {
+        if (depthLimit > 0 && suitableHost.test(url)) {
+            found(url, depthLimit);
+        }
+        taskDone();
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            cancelled = true;
+            Thread.currentThread().interrupt();
+            // running tasks still change the sets
+            return new Result(new ArrayList<>(successes), new HashMap<>(failures));
+        }
+        return new Result(new ArrayList<>(successes), failures);
+    }
+
+    private void taskStarted() {
+        pending.incrementAndGet();
+    }
+
+    private void taskDone() {
+        if (pending.decrementAndGet() == 0) {
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Pages found from the start page and pages of final levels get no greater depth
+     */
+    private boolean mayUpgrade(int remaining) {
+        return remaining < upgradableBelow;
+    }
+
+    /**
+     * Finishes page or push of given level. Counter is increased only while some greater level is not finished,
+     * so levels above the greatest unfinished one {@code top} stay finished,
+     * and pages with remaining depth at least {@code top - 1} are final
+     */
+    private void levelDone(int level) {
+        if (unfinished[level].decrementAndGet() == 0) {
+            updateUpgradable();
+        }
+    }
+
+    private synchronized void updateUpgradable() {
+        int top = depthLimit;
+        while (top > 0 && unfinished[top].get() == 0) {
+            top--;
+        }
+        while (upgradableBelow > Math.max(top - 1, 1)) {
+            upgradableBelow--;
+            for (Page page; (page = holding.get(upgradableBelow).poll()) != null; ) {
+                synchronized (page) {
+                    // page may be upgraded after it was queued
+                    if (!mayUpgrade(page.remaining)) {
+                        page.links = null;
+                        if (page.done) {
+                            pages.remove(page.url, page);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets done page if it can not be upgraded, otherwise queues it to be forgotten when its level is final.
+     * Should be called under page monitor
+     */
+    private void settle(Page page) {
+        if (mayUpgrade(page.remaining)) {
+            holding.get(page.remaining).add(page);
+            // level may become final before page is queued
+            if (mayUpgrade(page.remaining)) {
+                return;
+            }
+        }
+        page.links = null;
+        pages.remove(page.url, page);
+    }
+
+    /**
+     * Keeps links of page while it may be upgraded. Should be called under page monitor
+     */
+    private void hold(Page page, List<String> links) {
+        if (mayUpgrade(page.remaining)) {
+            page.links = links;
+            holding.get(page.remaining).add(page);
+            // level may become final before page is queued
+            if (!mayUpgrade(page.remaining)) {
+                page.links = null;
+            }
+        } else {
+            page.links = null;
+        }
+    }
+
+    /**
+     * Downloads new page, or upgrades known one if it is found with greater remaining depth.
+     * Url should have suitable host. Caller should be counted in a greater level
+     */
+    private void found(String url, int remaining) {
+        Page[] created = new Page[1];
+        // set is asked under the lock of map bin, so concurrent upgrade waits for the page
+        Page page = pages.compute(url, (key, known) -> {
+            if (known == null && seenUrls.add(key)) {
+                created[0] = new Page(key, remaining);
+                return created[0];
+            }
+            return known;
+        });
+        if (created[0] != null) {
+            unfinished[remaining].incrementAndGet();
+            download(created[0]);
+            return;
+        }
+        if (page == null) {
+            return;
+        }
+
+        int previous;
+        boolean moved;
+        List<String> links = null;
+        synchronized (page) {
+            if (remaining <= page.remaining) {
+                return;
+            }
+            previous = page.remaining;
+            page.remaining = remaining;
+            moved = !page.done;
+            if (moved) {
+                unfinished[remaining].incrementAndGet();
+            } else if (page.links == null) {
+                // failed page is held by nothing else
+                settle(page);
+            }
+            // not extracted page gets its depth from the field
+            if (page.extracted && page.links != null && remaining - 1 > page.pushed) {
+                links = page.links;
+                page.pushed = remaining - 1;
+                unfinished[remaining].incrementAndGet();
+                hold(page, links);
+            }
+        }
+        if (moved) {
+            levelDone(previous);
+        }
+        if (links != null) {
+            List<String> pushed = links;
+            submitExtract(() -> {
+                try {
+                    push(pushed, remaining - 1);
+                } finally {
+                    levelDone(remaining);
+                }
+            });
+        }
+    }
+
+    private void push(List<String> links, int depth) {
+        if (depth <= 0) {
+            return;
+        }
+        for (String link : links) {
+            found(link, depth);
+        }
+    }
+
+    /**
+     * Marks page as done and returns level it is counted in
+     */
+    private int finish(Page page) {
+        synchronized (page) {
+            page.done = true;
+            settle(page);
+            return page.remaining;
+        }
+    }
+
+    private void download(Page page) {
+        String host;
+        try {
+            host = HostFilter.getHost(page.url);
+        } catch (MalformedURLException e) {
+            failures.put(page.url, e);
+            levelDone(finish(page));
+            return;
+        }
+        taskStarted();
+        // extract threads must not wait for a permit, so download waits in the queue of permits
+        documentPermits.runWithPermit(() -> hostScheduler.submit(host, () -> {
+            boolean extracting = false;
+            try {
+                if (cancelled) {
+                    levelDone(finish(page));
+                    return;
+                }
+                Document document = downloader.download(page.url);
+                successes.add(page.url);
+                submitExtract(() -> {
+                    try {
+                        extract(page, document);
+                    } finally {
+                        documentPermits.release();
+                        levelDone(finish(page));
+                    }
+                });
+                extracting = true;
+            } catch (IOException e) {
+                failures.put(page.url, e);
+                levelDone(finish(page));
+            } finally {
+                if (!extracting) {
+                    documentPermits.release();
+                }
+                taskDone();
+            }
+        }));
+    }
+
+    private void extract(Page page, Document document) {
+        synchronized (page) {
+            if (page.remaining <= 1 && !mayUpgrade(page.remaining)) {
+                page.extracted = true;
+                return;
+            }
+        }
+
+        List<String> links;
+        try {
+            links = document.extractLinks().stream()
+                    .filter(suitableHost)
+                    .toList();
+        } catch (IOException e) {
+            links = List.of();
+        }
+
+        int depth;
+        synchronized (page) {
+            page.extracted = true;
+            depth = page.pushed = page.remaining - 1;
+            hold(page, links);
+        }
+        push(links, depth);
+    }
+
+    private void submitExtract(Runnable task) {
+        taskStarted();
+        extractService.submit(() -> {
+            try {
+                task.run();
+            } finally {
+                taskDone();
+            }
+        });
+    }
+}
@@ -0,0 +1,49 @@
+package info.kgeorgiy.ja.boin.crawler;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Set of urls seen by a single crawl. Implementations are safe for concurrent use
+ */
+public interface SeenUrls {
+    /**
+     * Adds url to the set
+     *
+     * @return {@code true} if url was not seen before. Approximate sets may return {@code false} for new url
+     */
+    boolean add(String url);
+
+    /**
+     * Exact set keeping urls as strings
+     */
+    static SeenUrls strings() {
+        Set<String> urls = ConcurrentHashMap.newKeySet();
+        return urls::add;
+    }
+
+    /**
+     * Set of url fingerprints in primitive open addressing tables.
+     * Different urls are taken for the same one only if their fingerprints collide,
+     * that is about {@code n^2 / 2^(bits + 1)} for {@code n} urls
+     *
+     * @param bits fingerprint size, 64 or 128
+     */
+    static SeenUrls fingerprints(int bits) {
+        if (bits != 64 && bits != 128) {
+            throw new IllegalArgumentException("Fingerprint should have 64 or 128 bits");
+        }
+        return new FingerprintUrls(bits == 128);
+    }
+
+    /**
+     * Approximate set on Bloom filter. Size is fixed, new url is taken for seen one with given probability,
+     * while set has no more than {@code expectedUrls} urls
+     *
+     * @param expectedUrls      expected number of urls
+     * @param falsePositiveRate probability that new url is taken for seen one, in {@code (0, 1)}
+     */
+    static SeenUrls bloom(long expectedUrls, double falsePositiveRate) {
+        return new BloomUrls(expectedUrls, falsePositiveRate);
+    }
+}
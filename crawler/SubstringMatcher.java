@@ -0,0 +1,126 @@
+package info.kgeorgiy.ja.boin.crawler;
+
+import java.util.*;
+
+/**
+ * Aho-Corasick automaton, that checks whether text contains any of given patterns in a single pass.
+ * Automaton is a full transition table over chars of the patterns, other chars lead to the root
+ */
+class SubstringMatcher {
+    private static final int ASCII = 128;
+
+    // column of ASCII char, 0 for chars out of patterns
+    private final int[] asciiColumns = new int[ASCII];
+    // sorted non-ASCII chars of patterns, their columns follow ASCII ones
+    private final char[] otherChars;
+    private final int otherBase;
+    private final int columns;
+    private final int[] transitions;
+    private final boolean[] accepting;
+    private final boolean matchesAll;
+
+    SubstringMatcher(Collection<String> patterns) {
+        matchesAll = patterns.stream().anyMatch(String::isEmpty);
+
+        SortedSet<Character> others = new TreeSet<>();
+        int ascii = 1;
+        for (String pattern : patterns) {
+            for (char c : pattern.toCharArray()) {
+                if (c < ASCII) {
+                    if (asciiColumns[c] == 0) {
+                        asciiColumns[c] = ascii++;
+                    }
+                } else {
+                    others.add(c);
+                }
+            }
+        }
+        otherChars = new char[others.size()];
+        int i = 0;
+        for (char c : others) {
+            otherChars[i++] = c;
+        }
+        otherBase = ascii;
+        columns = ascii + otherChars.length;
+
+        // trie, -1 is missing edge
+        List<int[]> trie = new ArrayList<>();
+        List<Boolean> terminal = new ArrayList<>();
+        trie.add(newState());
+        terminal.add(false);
+        for (String pattern : patterns) {
+            int state = 0;
+            for (char c : pattern.toCharArray()) {
+                int column = column(c);
+                if (trie.get(state)[column] < 0) {
+                    trie.get(state)[column] = trie.size();
+                    trie.add(newState());
+                    terminal.add(false);
+                }
+                state = trie.get(state)[column];
+            }
+            terminal.set(state, true);
+        }
+
+        // breadth first: missing edges go where failure link goes, states accept if their failure state does
+        int states = trie.size();
+        transitions = new int[states * columns];
+        accepting = new boolean[states];
+        int[] failure = new int[states];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int column = 0; column < columns; column++) {
+            int next = trie.getFirst()[column];
+            transitions[column] = Math.max(next, 0);
+            if (next > 0) {
+                queue.add(next);
+            }
+        }
+        accepting[0] = terminal.getFirst();
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            accepting[state] = terminal.get(state) || accepting[failure[state]];
+            for (int column = 0; column < columns; column++) {
+                int next = trie.get(state)[column];
+                int fallback = transitions[failure[state] * columns + column];
+                if (next < 0) {
+                    transitions[state * columns + column] = fallback;
+                } else {
+                    transitions[state * columns + column] = next;
+                    failure[next] = fallback;
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    private int[] newState() {
+        int[] edges = new int[columns];
+        Arrays.fill(edges, -1);
+        return edges;
+    }
+
+    private int column(char c) {
+        if (c < ASCII) {
+            return asciiColumns[c];
+        }
+        int index = Arrays.binarySearch(otherChars, c);
+        return index < 0 ? 0 : otherBase + index;
+    }
+
+    /**
+     * Returns whether text contains any of the patterns
+     */
+    boolean matches(String text) {
+        if (matchesAll) {
+            return true;
+        }
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = transitions[state * columns + column(text.charAt(i))];
+            if (accepting[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
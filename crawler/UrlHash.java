@@ -0,0 +1,82 @@
+package info.kgeorgiy.ja.boin.crawler;
+
+/**
+ * MurmurHash3_x64_128 of strings. Chars are taken as UTF-16LE bytes, eight chars a block,
+ * so hash is the same as reference one of such bytes
+ */
+final class UrlHash {
+    static final long SEED = 0x9E3779B97F4A7C15L;
+
+    private static final long C1 = 0x87C37B91114253D5L;
+    private static final long C2 = 0x4CF5AD432745937FL;
+
+    private UrlHash() {
+    }
+
+    /**
+     * Returns both halves of 128-bit hash, {@code h1} first
+     */
+    static long[] hash(String s, long seed) {
+        int length = s.length();
+        long h1 = seed;
+        long h2 = seed;
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            h1 ^= mixK1(chars(s, i, 4));
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52DCE729;
+            h2 ^= mixK2(chars(s, i + 4, 4));
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495AB5;
+        }
+        int tail = length - i;
+        if (tail > 4) {
+            h2 ^= mixK2(chars(s, i + 4, tail - 4));
+        }
+        if (tail > 0) {
+            h1 ^= mixK1(chars(s, i, Math.min(tail, 4)));
+        }
+
+        long bytes = 2L * length;
+        h1 ^= bytes;
+        h2 ^= bytes;
+        h1 += h2;
+        h2 += h1;
+        h1 = mix(h1);
+        h2 = mix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new long[]{h1, h2};
+    }
+
+    /**
+     * Little-endian long of {@code count} chars starting at {@code from}
+     */
+    private static long chars(String s, int from, int count) {
+        long k = 0;
+        for (int j = 0; j < count; j++) {
+            k |= (long) s.charAt(from + j) << (16 * j);
+        }
+        return k;
+    }
+
+    private static long mixK1(long k) {
+        return Long.rotateLeft(k * C1, 31) * C2;
+    }
+
+    private static long mixK2(long k) {
+        return Long.rotateLeft(k * C2, 33) * C1;
+    }
+
+    /**
+     * Finalization mix of MurmurHash3, every input bit affects every output bit
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
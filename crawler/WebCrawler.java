@@ -4,8 +4,11 @@ import info.kgeorgiy.java.advanced.crawler.*;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * WebCrawler is an implementation of {@link NewCrawler} interface that recursively downloads web pages
@@ -15,11 +18,58 @@ public class WebCrawler implements NewCrawler {
     private final Downloader downloader;
     private final ExecutorService downloadService;
     private final ExecutorService extractService;
+    private final HostScheduler hostScheduler;
+    private final boolean pipelined;
+    // one permit for every document that is scheduled for download, but not extracted yet
+    private final DocumentPermits documentPermits;
 
+    /**
+     * Creates crawler with given number of threads.
+     * Pages of a host over {@code perHost} limit wait for their host, while threads download other hosts
+     *
+     * @param download number of download threads
+     * @param extract  number of extract threads
+     * @param perHost  maximal number of pages of a single host that are downloaded at once
+     */
     public WebCrawler(Downloader downloader, int download, int extract, int perHost) {
+        this(downloader, download, extract, perHost, false);
+    }
+
+    /**
+     * Creates crawler with given number of threads, that may crawl without barriers between depth levels.
+     * Pipelined crawler extracts links as soon as page is downloaded and downloads them at once,
+     * so slow page does not stall the next level. Result is the same as of level by level crawl
+     *
+     * @param download  number of download threads
+     * @param extract   number of extract threads
+     * @param perHost   maximal number of pages of a single host that are downloaded at once
+     * @param pipelined whether levels are crawled without barriers
+     */
+    public WebCrawler(Downloader downloader, int download, int extract, int perHost, boolean pipelined) {
+        this(downloader, download, extract, perHost, pipelined, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates crawler that keeps limited number of documents in memory.
+     * Document is released as soon as its links are extracted. New downloads are not scheduled
+     * while {@code maxDocuments} documents are scheduled or waiting for extraction, download threads never wait
+     *
+     * @param download     number of download threads
+     * @param extract      number of extract threads
+     * @param perHost      maximal number of pages of a single host that are downloaded at once
+     * @param pipelined    whether levels are crawled without barriers
+     * @param maxDocuments maximal number of scheduled documents that are not extracted yet
+     */
+    public WebCrawler(Downloader downloader, int download, int extract, int perHost, boolean pipelined, int maxDocuments) {
+        if (maxDocuments <= 0) {
+            throw new IllegalArgumentException("Maximal number of documents should be positive");
+        }
         this.downloader = downloader;
         this.downloadService = Executors.newFixedThreadPool(download);
         this.extractService = Executors.newFixedThreadPool(extract);
+        this.hostScheduler = new HostScheduler(downloadService, perHost);
+        this.pipelined = pipelined;
+        this.documentPermits = new DocumentPermits(maxDocuments);
     }
 
     /**
@@ -27,78 +77,208 @@ public class WebCrawler implements NewCrawler {
      */
     @Override
     public Result download(String url, int depthLimit, List<String> excludes) {
-        Set<String> knownUrls = ConcurrentHashMap.newKeySet();
-        Set<String> successes = ConcurrentHashMap.newKeySet();
-        Map<String, IOException> failures = new ConcurrentHashMap<>();
-        Queue<String> urlsToDownload = new ConcurrentLinkedQueue<>();
+        return download(url, depthLimit, excludes, SeenUrls.strings());
+    }
 
-        if (isSuitable(url, excludes, knownUrls)) urlsToDownload.add(url);
+    /**
+     * Downloads website up to specified depth, remembering seen urls in given set.
+     * Compact sets save memory on large crawls, approximate ones may skip some new pages.
+     * If calling thread is interrupted, pages that are not started are skipped,
+     * interrupt flag stays set and result has only pages processed so far
+     *
+     * @param knownUrls empty set of seen urls
+     */
+    public Result download(String url, int depthLimit, List<String> excludes, SeenUrls knownUrls) {
+        HostFilter hostFilter = new HostFilter(excludes);
+        if (pipelined) {
+            return new PipelinedCrawl(downloader, hostScheduler, extractService, documentPermits,
+                    hostFilter::isSuitable, knownUrls, depthLimit).run(url);
+        }
 
-        Phaser barrier = new Phaser(1);
+        List<Queue<String>> levels = new ArrayList<>();
         for (int depth = 0; depth < depthLimit; depth++) {
-            List<Document> documents = Collections.synchronizedList(new ArrayList<>());
+            levels.add(new ConcurrentLinkedQueue<>());
+        }
+        if (depthLimit > 0 && isSuitable(url, hostFilter, knownUrls)) levels.getFirst().add(url);
 
-            downloadAll(urlsToDownload, barrier, successes, documents, failures);
+        return downloadLevels(levels, ConcurrentHashMap.newKeySet(), new ConcurrentHashMap<>(),
+                hostFilter, knownUrls, null);
+    }
 
-            if (depth == depthLimit - 1) break;
+    /**
+     * Downloads website level by level, appending progress to checkpoint file.
+     * Checkpoint is written by a separate thread and forced to disk every second,
+     * so crawl may be continued by {@link #resume} after restart. Checkpointed crawl is never pipelined
+     *
+     * @param knownUrls  empty set of seen urls
+     * @param checkpoint file for crawl log, existing file is overwritten
+     * @throws IOException              if checkpoint can not be created
+     * @throws CrawlCheckpointException if crawl is finished, but checkpoint can not be completed
+     */
+    public Result download(String url, int depthLimit, List<String> excludes, SeenUrls knownUrls, Path checkpoint)
+            throws IOException {
+        HostFilter hostFilter = new HostFilter(excludes);
+        boolean started = depthLimit > 0 && isSuitable(url, hostFilter, knownUrls);
+        CrawlCheckpoint log = CrawlCheckpoint.create(checkpoint, url, depthLimit, excludes, started);
+        return crawlLogged(log, () -> downloadLevels(log.pending, log.successes, log.failures, hostFilter, knownUrls, log));
+    }
+
+    /**
+     * Continues crawl from the last complete record of its checkpoint file.
+     * Pages that were being downloaded at restart are downloaded again.
+     * Returned result includes pages downloaded before restart, their errors keep only messages
+     *
+     * @param knownUrls  empty set of seen urls
+     * @param checkpoint file written by {@link #download(String, int, List, SeenUrls, Path)}, it is continued
+     * @throws IOException              if checkpoint can not be read
+     * @throws CrawlCheckpointException if crawl is finished, but checkpoint can not be completed
+     */
+    public Result resume(Path checkpoint, SeenUrls knownUrls) throws IOException {
+        CrawlCheckpoint log = CrawlCheckpoint.resume(checkpoint, knownUrls);
+        return crawlLogged(log, () -> downloadLevels(log.pending, log.successes, log.failures,
+                new HostFilter(log.excludes), knownUrls, log));
+    }
 
-            Queue<String> extractedUrls = new ConcurrentLinkedQueue<>();
-            extractAll(excludes, documents, barrier, extractedUrls, knownUrls);
-            urlsToDownload = extractedUrls;
+    /**
+     * Runs crawl and closes its checkpoint, failure of the checkpoint does not lose the result
+     */
+    private static Result crawlLogged(CrawlCheckpoint log, Supplier<Result> crawl) throws CrawlCheckpointException {
+        Result result;
+        try {
+            result = crawl.get();
+        } catch (Throwable e) {
+            try {
+                log.close();
+            } catch (IOException closeError) {
+                e.addSuppressed(closeError);
+            }
+            throw e;
         }
-        return new Result(new ArrayList<>(successes), failures);
+        try {
+            log.close();
+        } catch (IOException e) {
+            throw new CrawlCheckpointException(result, e);
+        }
+        return result;
     }
 
     /**
-     * Extracts URLs and files from given documents in parallel, using <code>extractService</code>
+     * Downloads given levels one by one, links of every level are added to the next one
+     *
+     * @param checkpoint log of the crawl, {@code null} if crawl is not logged
      */
-    private void extractAll(List<String> excludes, List<Document> documents, Phaser barrier, Queue<String> extractedUrls, Set<String> knownUrls) {
-        documents.forEach(document -> {
-            barrier.register();
-            extractService.submit(() -> {
-                try {
-                    document.extractLinks().stream()
-                            .filter(link -> isSuitable(link, excludes, knownUrls))
-                            .forEach(extractedUrls::add);
-                } catch (IOException ignored) {
-                } finally {
-                    barrier.arriveAndDeregister();
+    private Result downloadLevels(List<Queue<String>> levels, Set<String> successes, Map<String, IOException> failures,
+                                  HostFilter hostFilter, SeenUrls knownUrls, CrawlCheckpoint checkpoint) {
+        Phaser barrier = new Phaser(1);
+        for (int depth = 0; depth < levels.size(); depth++) {
+            int nextDepth = depth + 1;
+            // links of the last level are not needed
+            Consumer<Document> extractor = nextDepth == levels.size() ? null
+                    : document -> extract(document, hostFilter, levels.get(nextDepth), nextDepth, knownUrls, checkpoint);
+
+            downloadAll(levels.get(depth), barrier, successes, failures, extractor, checkpoint);
+            levels.get(depth).clear();
+        }
+        return new Result(new ArrayList<>(successes), failures);
+    }
+
+    private void extract(Document document, HostFilter hostFilter, Queue<String> extractedUrls, int depth,
+                         SeenUrls knownUrls, CrawlCheckpoint checkpoint) {
+        try {
+            for (String link : document.extractLinks()) {
+                if (isSuitable(link, hostFilter, knownUrls)) {
+                    extractedUrls.add(link);
+                    if (checkpoint != null) {
+                        checkpoint.discovered(link, depth);
+                    }
                 }
-            });
-        });
-        barrier.arriveAndAwaitAdvance();
+            }
+        } catch (IOException ignored) {
+        }
     }
 
     /**
-     * Download URLs in parallel, using <code>downloadService</code>
+     * Download URLs in parallel, using <code>downloadService</code> with limit per host.
+     * Every document is passed to {@code extractor} on <code>extractService</code> as soon as it is downloaded,
+     * so only documents waiting for extraction are kept. Returns when all documents are extracted
+     *
+     * @param extractor  action for every downloaded document, {@code null} if documents are not needed
+     * @param checkpoint log of the crawl, success is logged after extraction, {@code null} if crawl is not logged
      */
-    private void downloadAll(Queue<String> urls, Phaser barrier, Set<String> successes, List<Document> documents, Map<String, IOException> failures) {
-       urls.forEach(url -> {
+    private void downloadAll(Queue<String> urls, Phaser barrier, Set<String> successes, Map<String, IOException> failures,
+                             Consumer<Document> extractor, CrawlCheckpoint checkpoint) {
+        for (String url : urls) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            String host;
+            try {
+                host = HostFilter.getHost(url);
+            } catch (MalformedURLException e) {
+                failed(url, e, failures, checkpoint);
+                continue;
+            }
+            if (extractor != null) {
+                try {
+                    documentPermits.acquire();
+                } catch (InterruptedException e) {
+                    // pages that are already submitted are awaited
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
             barrier.register();
-            downloadService.submit(() -> {
+            hostScheduler.submit(host, () -> {
+                boolean extracting = false;
                 try {
-                    documents.add(downloader.download(url));
+                    if (extractor == null) {
+                        downloader.download(url);
+                        successes.add(url);
+                        if (checkpoint != null) {
+                            checkpoint.succeeded(url);
+                        }
+                        return;
+                    }
+                    Document document = downloader.download(url);
                     successes.add(url);
+                    barrier.register();
+                    extractService.submit(() -> {
+                        try {
+                            extractor.accept(document);
+                            if (checkpoint != null) {
+                                checkpoint.succeeded(url);
+                            }
+                        } finally {
+                            documentPermits.release();
+                            barrier.arriveAndDeregister();
+                        }
+                    });
+                    extracting = true;
                 } catch (IOException e) {
-                    failures.put(url, e);
+                    failed(url, e, failures, checkpoint);
                 } finally {
+                    if (extractor != null && !extracting) {
+                        documentPermits.release();
+                    }
                     barrier.arriveAndDeregister();
                 }
             });
-        });
+        }
         barrier.arriveAndAwaitAdvance();
     }
 
+    private static void failed(String url, IOException e, Map<String, IOException> failures, CrawlCheckpoint checkpoint) {
+        failures.put(url, e);
+        if (checkpoint != null) {
+            checkpoint.failed(url, e);
+        }
+    }
+
     /**
      * Ensures that given url's host does not contain substring from <code>excluded</code> list
      */
-    private boolean isSuitable(String url, List<String> excludes, Set<String> knownUrls) {
-        try {
-            String host = URLUtils.getHost(url);
-            return excludes.stream().noneMatch(host::contains) && knownUrls.add(url);
-        } catch (MalformedURLException e) {
-            return false;
-        }
+    private static boolean isSuitable(String url, HostFilter hostFilter, SeenUrls knownUrls) {
+        return hostFilter.isSuitable(url) && knownUrls.add(url);
     }
 
     @Override
@@ -1,19 +1,29 @@
 package info.kgeorgiy.ja.boin.iterative;
 
-import info.kgeorgiy.java.advanced.iterative.ScalarIP;
+import info.kgeorgiy.java.advanced.iterative.ListIP;
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.*;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 /**
- * Methods for some parallel operations
+ * Methods for some parallel operations.
+ * Instance without mapper runs operations on its own pool of threads, that is created on first use
+ * and released by {@link #close()}
  */
-public class IterativeParallelism implements ScalarIP {
+public class IterativeParallelism implements ListIP, AutoCloseable {
+    // handing chunk over to another thread costs tens of microseconds,
+    // while simple operation takes few nanoseconds per element
+    private static final int SEQUENTIAL_THRESHOLD = 1 << 12;
 
     private final ParallelMapper mapper;
+    private final int chunksPerThread;
+    private volatile ExecutorService pool;
 
     /**
      * Creates new instance of IterativeParallelism that will use
@@ -22,64 +32,350 @@ public class IterativeParallelism implements ScalarIP {
      * @param mapper given mapper
      */
     public IterativeParallelism(ParallelMapper mapper) {
-        this.mapper = mapper;
+        this(mapper, 1);
     }
 
     /**
      * New instance of Iterative parallelism without mapper
      */
     public IterativeParallelism() {
-        mapper = null;
+        this(null, 1);
     }
 
     /**
-     * Class representing simple interval
+     * Creates new instance of IterativeParallelism in adaptive mode.
+     * List is split into {@code chunksPerThread} times more chunks than threads,
+     * threads take next chunk as soon as they are done with previous one,
+     * so cost of elements that varies a lot is balanced between threads
      *
-     * @param start interval start
-     * @param end   interval end >= start, exclusive
+     * @param mapper          given mapper, or {@code null} to start own threads
+     * @param chunksPerThread number of chunks for every thread, 1 for static split
+     */
+    public IterativeParallelism(ParallelMapper mapper, int chunksPerThread) {
+        if (chunksPerThread <= 0) {
+            throw new IllegalArgumentException("Chunks per thread should be positive");
+        }
+        this.mapper = mapper;
+        this.chunksPerThread = chunksPerThread;
+    }
+
+    /**
+     * Consecutive elements of the source, first of them has index {@code start}.
+     * Chunk is created by the thread that takes it and is not referenced after it is processed
+     */
+    private static final class Chunk<T> {
+        private final int index;
+        private final int start;
+        private final List<T> elements;
+
+        Chunk(int index, int start, List<T> elements) {
+            this.index = index;
+            this.start = start;
+            this.elements = elements;
+        }
+    }
+
+    /**
+     * Results of chunks processed by a single worker. Worker writes only to its own instance,
+     * so threads do not share cache lines while processing
+     */
+    private static final class Partial {
+        private int[] indexes = new int[4];
+        private Object[] results = new Object[4];
+        private int size;
+
+        void add(int index, Object result) {
+            if (size == indexes.length) {
+                indexes = Arrays.copyOf(indexes, size * 2);
+                results = Arrays.copyOf(results, size * 2);
+            }
+            indexes[size] = index;
+            results[size++] = result;
+        }
+    }
+
+    /**
+     * Source of chunks shared by all threads of a single operation
+     */
+    private interface Chunks<T> {
+        /**
+         * Returns next chunk, or {@code null} if source is exhausted
+         */
+        Chunk<T> next();
+
+        /**
+         * Returns number of chunks taken so far
+         */
+        int taken();
+
+        /**
+         * Returns maximal number of threads that can get a chunk
+         */
+        int parallelism();
+    }
+
+    /**
+     * Chunks of random access list of equal size
+     */
+    private static final class ListChunks<T> implements Chunks<T> {
+        private final List<T> list;
+        private final int count;
+        private final int step;
+        private final AtomicInteger next = new AtomicInteger();
+
+        ListChunks(List<T> list, int count) {
+            this.list = list;
+            this.count = count;
+            step = (list.size() + count - 1) / count;
+        }
+
+        @Override
+        public Chunk<T> next() {
+            int index = next.getAndIncrement();
+            if (index >= count) {
+                return null;
+            }
+            int start = Math.min(index * step, list.size());
+            return new Chunk<>(index, start, list.subList(start, Math.min(start + step, list.size())));
+        }
+
+        @Override
+        public int taken() {
+            return count;
+        }
+
+        @Override
+        public int parallelism() {
+            return count;
+        }
+    }
+
+    /**
+     * Chunks of sequential source, cut in a single pass while threads take them,
+     * so source is never copied as a whole
+     */
+    private static final class SpliteratorChunks<T> implements Chunks<T> {
+        private final Spliterator<? extends T> spliterator;
+        private final int step;
+        private final int parallelism;
+        private int taken;
+        private int position;
+        private Object[] buffer;
+        private int filled;
+
+        SpliteratorChunks(Spliterator<? extends T> spliterator, int step, int parallelism) {
+            this.spliterator = spliterator;
+            this.step = step;
+            this.parallelism = parallelism;
+        }
+
+        private void accept(T element) {
+            if (buffer == null) {
+                // allocated on the first element, so exhausted source costs nothing
+                long remaining = spliterator.getExactSizeIfKnown();
+                buffer = new Object[remaining < 0 ? step : (int) Math.min(step, remaining + 1)];
+            }
+            buffer[filled++] = element;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public synchronized Chunk<T> next() {
+            buffer = null;
+            filled = 0;
+            while (filled < step && spliterator.tryAdvance(this::accept)) {
+                // elements are put to buffer
+            }
+            if (filled == 0) {
+                return null;
+            }
+            Chunk<T> chunk = new Chunk<>(taken++, position, (List<T>) Arrays.asList(buffer).subList(0, filled));
+            position += filled;
+            return chunk;
+        }
+
+        @Override
+        public synchronized int taken() {
+            return taken;
+        }
+
+        @Override
+        public int parallelism() {
+            return parallelism;
+        }
+    }
+
+    /**
+     * Read-only view of consecutive lists, that are not copied
      */
-    record Interval(int start, int end) {
-        Stream<Integer> stream() {
-            return IntStream.range(start, end).boxed();
+    private static final class Concatenation<T> extends AbstractList<T> implements RandomAccess {
+        private final List<List<T>> parts = new ArrayList<>();
+        // offsets[i] is index of the first element of parts[i], empty parts are skipped
+        private final int[] offsets;
+        private final int size;
+
+        Concatenation(List<List<T>> lists) {
+            int total = 0;
+            List<Integer> starts = new ArrayList<>();
+            for (List<T> list : lists) {
+                if (!list.isEmpty()) {
+                    parts.add(list);
+                    starts.add(total);
+                    total += list.size();
+                }
+            }
+            offsets = starts.stream().mapToInt(Integer::intValue).toArray();
+            size = total;
+        }
+
+        @Override
+        public T get(int index) {
+            Objects.checkIndex(index, size);
+            int part = Arrays.binarySearch(offsets, index);
+            if (part < 0) {
+                part = -(part + 1) - 1;
+            }
+            return parts.get(part).get(index - offsets[part]);
+        }
+
+        @Override
+        public int size() {
+            return size;
         }
     }
 
     // ---parallel utils---
 
-    private Integer parallelOperation(int threads, List<?> list, Function<Stream<Integer>, Integer> op, Predicate<Integer> breakCond) throws InterruptedException {
-        return parallelOperation(threads, list, op, op);
+    private int chunkCount(int threads, long size) {
+        if (mapper == null && size < SEQUENTIAL_THRESHOLD) {
+            return 1;
+        } else if (chunksPerThread == 1) {
+            return threads;
+        } else {
+            return (int) Math.min((long) threads * chunksPerThread, Math.max(threads, size));
+        }
     }
 
-    private Integer parallelOperation(int threads, List<?> list, Function<Stream<Integer>, Integer> op) throws InterruptedException {
-        return parallelOperation(threads, list, op, op);
+    /**
+     * Cuts random access list in advance, other lists are cut in a single pass
+     */
+    private <T> Chunks<T> chunks(int threads, List<T> list) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Threads less than zero");
+        }
+        if (list instanceof RandomAccess) {
+            return new ListChunks<>(list, chunkCount(threads, list.size()));
+        }
+        return chunks(threads, list.spliterator());
     }
 
-    private <T extends Number> T parallelOperation(int threads, List<?> list, Function<Stream<Integer>, T> op, Function<Stream<T>, T> finalizer) throws InterruptedException {
-        if (list.isEmpty()) {
-            throw new NoSuchElementException("Empty list");
-        } else if (threads <= 0) {
+    /**
+     * Source of known size is cut into {@link #chunkCount} chunks, other ones into chunks of fixed size
+     */
+    private <T> Chunks<T> chunks(int threads, Spliterator<? extends T> spliterator) {
+        if (threads <= 0) {
             throw new IllegalArgumentException("Threads less than zero");
         }
+        if (spliterator.hasCharacteristics(Spliterator.SIZED)) {
+            long size = Math.max(1, spliterator.estimateSize());
+            int count = chunkCount(threads, size);
+            return new SpliteratorChunks<>(spliterator, (int) ((size + count - 1) / count), count);
+        }
+        return new SpliteratorChunks<>(spliterator, SEQUENTIAL_THRESHOLD, threads);
+    }
 
-        int step = (list.size() + threads - 1) / threads;
+    /**
+     * Applies {@code op} to chunks of the source in parallel.
+     * There are {@code threads} chunks in static mode, and more of them in adaptive one.
+     * Every worker keeps results in its own {@link Partial}, which is published once to its slot
+     *
+     * @return results for each chunk in source order
+     */
+    @SuppressWarnings("unchecked")
+    private <T, R> List<R> parallelOperation(int threads, Chunks<T> chunks, Function<Chunk<T>, R> op) throws InterruptedException {
+        int workers = Math.min(threads, chunks.parallelism());
+        Object[] slots = new Object[workers];
+        AtomicInteger workerIds = new AtomicInteger();
+        Runnable worker = () -> {
+            Partial partial = new Partial();
+            for (Chunk<T> chunk = chunks.next(); chunk != null; chunk = chunks.next()) {
+                partial.add(chunk.index, op.apply(chunk));
+            }
+            slots[workerIds.getAndIncrement()] = partial;
+        };
 
-        List<T> results;
         if (mapper != null) {
-            List<Stream<Integer>> intervals = IntStream.range(0, threads).mapToObj(i -> new Interval(i * step, Math.min((i + 1) * step, list.size())).stream()).toList();
-            results = mapper.map(op, intervals);
+            mapper.map(c -> {
+                worker.run();
+                return null;
+            }, Collections.nCopies(workers, chunks));
         } else {
-            results = new ArrayList<>(Collections.nCopies(threads, null));
-            Thread[] threadList = new Thread[threads];
-            IntStream.range(0, threads).forEach(i -> {
-                        Interval interval = new Interval(i * step, Math.min((i + 1) * step, list.size()));
-                        threadList[i] = new Thread(() -> results.set(i, op.apply(interval.stream())));
-                    }
-            );
-            Arrays.stream(threadList).forEach(Thread::start);
-            joinThreads(Arrays.stream(threadList).toList());
+            // calling thread is one of the workers
+            List<Future<?>> helpers = new ArrayList<>();
+            for (int i = 1; i < workers; i++) {
+                helpers.add(pool().submit(worker));
+            }
+            boolean completed = false;
+            try {
+                worker.run();
+                completed = true;
+            } finally {
+                if (!completed) {
+                    helpers.forEach(future -> future.cancel(true));
+                }
+            }
+            waitAll(helpers);
+        }
+
+        Object[] results = new Object[chunks.taken()];
+        for (Object slot : slots) {
+            Partial partial = (Partial) slot;
+            for (int j = 0; j < partial.size; j++) {
+                results[partial.indexes[j]] = partial.results[j];
+            }
+        }
+        return (List<R>) Arrays.asList(results);
+    }
+
+    private ExecutorService pool() {
+        ExecutorService result = pool;
+        if (result == null) {
+            synchronized (this) {
+                if (pool == null) {
+                    pool = Executors.newCachedThreadPool(runnable -> {
+                        Thread thread = new Thread(runnable);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+                result = pool;
+            }
         }
+        return result;
+    }
 
-        return finalizer.apply(results.stream());
+    private static void waitAll(List<Future<?>> futures) throws InterruptedException {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e;
+        } catch (ExecutionException e) {
+            MapperExceptions.rethrow(e.getCause());
+        }
+    }
+
+    /**
+     * Stops own threads of this instance, given mapper is not closed
+     */
+    @Override
+    public synchronized void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
     }
 
     public static void joinThreads(List<Thread> threads) throws InterruptedException {
@@ -100,51 +396,389 @@ public class IterativeParallelism implements ScalarIP {
             throw exceptions;
         }
     }
-    private Integer parallelReduce(int threads, List<?> list, BinaryOperator<Integer> f, Integer defaultVal) throws InterruptedException {
-        return parallelOperation(threads, list, (s) -> s.reduce(defaultVal, f));
+
+    /**
+     * Best element of a chunk with its index
+     */
+    private record Best<T>(int index, T value) {
     }
 
-    private <T> Stream<Integer> filterIndexes(Stream<Integer> stream, List<T> list, Predicate<? super T> predicate) {
-        return stream.filter(i -> i >= 0 && predicate.test(list.get(i)));
+    /**
+     * Finds first index of best element, element replaces current best only if {@code better} is positive
+     */
+    private <T> int argBest(int threads, Chunks<T> chunks, Comparator<? super T> better) throws InterruptedException {
+        List<Best<T>> results = parallelOperation(threads, chunks, chunk -> {
+            List<T> elements = chunk.elements;
+            if (elements.isEmpty()) {
+                return null;
+            }
+            int best = 0;
+            T bestValue = elements.get(0);
+            for (int i = 1; i < elements.size(); i++) {
+                T value = elements.get(i);
+                if (better.compare(value, bestValue) > 0) {
+                    best = i;
+                    bestValue = value;
+                }
+            }
+            return new Best<>(chunk.start + best, bestValue);
+        });
+
+        Best<T> best = null;
+        for (Best<T> result : results) {
+            if (result != null && (best == null || better.compare(result.value(), best.value()) > 0)) {
+                best = result;
+            }
+        }
+        if (best == null) {
+            throw new NoSuchElementException("Empty source");
+        }
+        return best.index();
     }
 
-    private <T> Comparator<Integer> compareIndexes(List<T> list, Comparator<? super T> comparator) {
-        return Comparator.comparing(list::get, comparator); //.thenComparing((i1, i2) -> -i1.compareTo(i2));
+    /**
+     * Chunks publish found indexes to {@code found} and stop as soon as they can not improve it
+     */
+    private <T> int indexOf(int threads, Chunks<T> chunks, Predicate<? super T> predicate) throws InterruptedException {
+        AtomicInteger found = new AtomicInteger(Integer.MAX_VALUE);
+        List<Integer> results = parallelOperation(threads, chunks, chunk -> {
+            List<T> elements = chunk.elements;
+            for (int i = 0; i < elements.size() && chunk.start + i < found.get(); i++) {
+                if (predicate.test(elements.get(i))) {
+                    found.accumulateAndGet(chunk.start + i, Math::min);
+                    return chunk.start + i;
+                }
+            }
+            return -1;
+        });
+        for (int index : results) {
+            if (index >= 0) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Chunks are scanned from the back, publishing and pruning like {@link #indexOf}
+     */
+    private <T> int lastIndexOf(int threads, Chunks<T> chunks, Predicate<? super T> predicate) throws InterruptedException {
+        AtomicInteger found = new AtomicInteger(-1);
+        List<Integer> results = parallelOperation(threads, chunks, chunk -> {
+            List<T> elements = chunk.elements;
+            for (int i = elements.size() - 1; i >= 0 && chunk.start + i > found.get(); i--) {
+                if (predicate.test(elements.get(i))) {
+                    found.accumulateAndGet(chunk.start + i, Math::max);
+                    return chunk.start + i;
+                }
+            }
+            return -1;
+        });
+        for (int i = results.size() - 1; i >= 0; i--) {
+            if (results.get(i) >= 0) {
+                return results.get(i);
+            }
+        }
+        return -1;
+    }
+
+    private <T> long sumIndices(int threads, Chunks<T> chunks, Predicate<? super T> predicate) throws InterruptedException {
+        List<Long> results = parallelOperation(threads, chunks, chunk -> {
+            List<T> elements = chunk.elements;
+            long sum = 0;
+            for (int i = 0; i < elements.size(); i++) {
+                if (predicate.test(elements.get(i))) {
+                    sum += chunk.start + i;
+                }
+            }
+            return sum;
+        });
+        long sum = 0;
+        for (long chunkSum : results) {
+            sum += chunkSum;
+        }
+        return sum;
     }
 
     // ---ScalarIp methods---
 
     @Override
     public <T> int argMax(int threads, List<T> list, Comparator<? super T> comparator) throws InterruptedException {
-        return parallelReduce(threads, list, BinaryOperator.maxBy(compareIndexes(list, comparator)), 0);
+        return argBest(threads, chunks(threads, list), comparator);
     }
 
     @Override
     public <T> int argMin(int threads, List<T> list, Comparator<? super T> comparator) throws InterruptedException {
-        return parallelReduce(threads, list, BinaryOperator.minBy(compareIndexes(list, comparator)), 0);
+        return argBest(threads, chunks(threads, list), comparator.reversed());
     }
 
-    private <T> int indexImpl(int threads, List<T> values, Predicate<? super T> predicate, Function<Stream<Integer>, Optional<Integer>> f) throws InterruptedException {
-        return parallelOperation(threads, values, s -> f.apply(filterIndexes(s, values, predicate)).orElse(-1));
+    @Override
+    public <T> int indexOf(int threads, List<T> values, Predicate<? super T> predicate) throws InterruptedException {
+        return indexOf(threads, chunks(threads, values), predicate);
     }
 
-    private <T, R extends Number> R indexImpl(int threads, List<T> values, Predicate<? super T> predicate, Function<Stream<Integer>, R> f, Function<Stream<R>, R> finalizer) throws InterruptedException {
-        return parallelOperation(threads, values, s -> f.apply(filterIndexes(s, values, predicate)), finalizer);
+    @Override
+    public <T> int lastIndexOf(int threads, List<T> values, Predicate<? super T> predicate) throws InterruptedException {
+        return lastIndexOf(threads, chunks(threads, values), predicate);
     }
 
     @Override
-    public <T> int indexOf(int threads, List<T> values, Predicate<? super T> predicate) throws InterruptedException {
-        return indexImpl(threads, values, predicate, Stream::findFirst);
+    public <T> long sumIndices(int threads, List<? extends T> values, Predicate<? super T> predicate) throws InterruptedException {
+        return sumIndices(threads, chunks(threads, values), predicate);
     }
 
+    // ---ListIP methods---
+
+    /**
+     * Every chunk is mapped into its own part of a single presized array
+     */
+    @SuppressWarnings("unchecked")
     @Override
-    public <T> int lastIndexOf(int threads, List<T> values, Predicate<? super T> predicate) throws InterruptedException {
-        return indexImpl(threads, values, predicate, s -> s.reduce((a, b) -> b));
+    public <T, U> List<U> map(int threads, List<? extends T> values, Function<? super T, ? extends U> f) throws InterruptedException {
+        Object[] result = new Object[values.size()];
+        parallelOperation(threads, chunks(threads, values), chunk -> {
+            List<? extends T> elements = chunk.elements;
+            for (int i = 0; i < elements.size(); i++) {
+                result[chunk.start + i] = f.apply(elements.get(i));
+            }
+            return null;
+        });
+        return Collections.unmodifiableList((List<U>) Arrays.asList(result));
     }
 
+    /**
+     * Every chunk is filtered into its own list, result is a view of their concatenation
+     */
     @Override
-    public <T> long sumIndices(int threads, List<? extends T> values, Predicate<? super T> predicate) throws InterruptedException {
-        return indexImpl(threads, values, predicate, s -> s.mapToLong(i -> (long) i).sum(), s -> s.reduce(0L, Long::sum));
+    public <T> List<T> filter(int threads, List<? extends T> values, Predicate<? super T> predicate) throws InterruptedException {
+        return filter(threads, chunks(threads, values), predicate);
     }
-}
 
+    @Override
+    public String join(int threads, List<?> values) throws InterruptedException {
+        return join(threads, chunks(threads, values));
+    }
+
+    private <T, U> List<U> map(int threads, Chunks<T> chunks, Function<? super T, ? extends U> f) throws InterruptedException {
+        return new Concatenation<>(parallelOperation(threads, chunks, chunk -> {
+            List<U> part = new ArrayList<>(chunk.elements.size());
+            for (T element : chunk.elements) {
+                part.add(f.apply(element));
+            }
+            return part;
+        }));
+    }
+
+    private <T> List<T> filter(int threads, Chunks<? extends T> chunks, Predicate<? super T> predicate) throws InterruptedException {
+        return new Concatenation<>(parallelOperation(threads, chunks, chunk -> {
+            List<T> part = new ArrayList<>();
+            for (T element : chunk.elements) {
+                if (predicate.test(element)) {
+                    part.add(element);
+                }
+            }
+            return part;
+        }));
+    }
+
+    private String join(int threads, Chunks<?> chunks) throws InterruptedException {
+        List<String> parts = parallelOperation(threads, chunks, chunk -> {
+            StringBuilder part = new StringBuilder();
+            for (Object element : chunk.elements) {
+                part.append(element);
+            }
+            return part.toString();
+        });
+        StringBuilder result = new StringBuilder(parts.stream().mapToInt(String::length).sum());
+        parts.forEach(result::append);
+        return result.toString();
+    }
+
+    // ---aggregations---
+
+    /**
+     * Finds {@code k} greatest elements, every chunk keeps its own bounded heap, heaps are merged in the end
+     *
+     * @return at most {@code k} greatest elements in descending order
+     */
+    public <T> List<T> topK(int threads, List<? extends T> values, int k, Comparator<? super T> comparator)
+            throws InterruptedException {
+        if (k < 0) {
+            throw new IllegalArgumentException("Negative k");
+        }
+        List<PriorityQueue<T>> heaps = parallelOperation(threads, chunks(threads, values), chunk -> {
+            PriorityQueue<T> heap = new PriorityQueue<>(Math.min(k, chunk.elements.size()) + 1, comparator);
+            for (T element : chunk.elements) {
+                offerBounded(heap, element, k, comparator);
+            }
+            return heap;
+        });
+
+        PriorityQueue<T> top = new PriorityQueue<>(Math.min(k, values.size()) + 1, comparator);
+        for (PriorityQueue<T> heap : heaps) {
+            for (T element : heap) {
+                offerBounded(top, element, k, comparator);
+            }
+        }
+        List<T> result = new ArrayList<>(top);
+        result.sort(comparator.reversed());
+        return result;
+    }
+
+    /**
+     * Keeps {@code k} greatest elements in min-heap
+     */
+    private static <T> void offerBounded(PriorityQueue<T> heap, T element, int k, Comparator<? super T> comparator) {
+        if (heap.size() < k) {
+            heap.add(element);
+        } else if (k > 0 && comparator.compare(element, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(element);
+        }
+    }
+
+    /**
+     * Counts elements in buckets, every chunk counts into its own array, arrays are summed in the end
+     *
+     * @param bucket  bucket of element, in {@code [0, buckets)}
+     * @param buckets number of buckets
+     * @return number of elements in every bucket
+     */
+    public <T> long[] histogram(int threads, List<? extends T> values, ToIntFunction<? super T> bucket, int buckets)
+            throws InterruptedException {
+        List<long[]> counts = parallelOperation(threads, chunks(threads, values), chunk -> {
+            long[] count = new long[buckets];
+            for (T element : chunk.elements) {
+                count[bucket.applyAsInt(element)]++;
+            }
+            return count;
+        });
+
+        long[] result = new long[buckets];
+        for (long[] count : counts) {
+            for (int i = 0; i < buckets; i++) {
+                result[i] += count[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Segment of the result with its total in the first pass of the scan and its shift in the second one
+     */
+    private record Segment(int start, int end, long value) {
+    }
+
+    /**
+     * Computes inclusive prefix sums with two-pass parallel scan: chunks compute local sums in place,
+     * then every chunk is shifted by total of the previous ones
+     *
+     * @return array where {@code i}-th element is sum of {@code f} over first {@code i + 1} values
+     */
+    public <T> long[] prefixSums(int threads, List<? extends T> values, ToLongFunction<? super T> f)
+            throws InterruptedException {
+        long[] result = new long[values.size()];
+        List<Segment> segments = parallelOperation(threads, chunks(threads, values), chunk -> {
+            long sum = 0;
+            for (int i = 0; i < chunk.elements.size(); i++) {
+                sum += f.applyAsLong(chunk.elements.get(i));
+                result[chunk.start + i] = sum;
+            }
+            return new Segment(chunk.start, chunk.start + chunk.elements.size(), sum);
+        });
+        if (segments.isEmpty()) {
+            return result;
+        }
+
+        List<Segment> shifts = new ArrayList<>(segments.size());
+        long offset = 0;
+        for (Segment segment : segments) {
+            shifts.add(new Segment(segment.start(), segment.end(), offset));
+            offset += segment.value();
+        }
+        parallelOperation(threads, new ListChunks<>(shifts, shifts.size()), chunk -> {
+            for (Segment segment : chunk.elements) {
+                for (int i = segment.start(); i < segment.end(); i++) {
+                    result[i] += segment.value();
+                }
+            }
+            return null;
+        });
+        return result;
+    }
+
+    /**
+     * Copies list into an unmodifiable one, every chunk is copied into its own part of a single presized array
+     */
+    public <T> List<T> values(int threads, List<? extends T> values) throws InterruptedException {
+        return map(threads, values, Function.<T>identity());
+    }
+
+    // ---sequential sources---
+    // Source is read in a single pass by the threads, so streaming data is not copied as a whole.
+    // Spliterator can be passed as Iterable: () -> Spliterators.iterator(spliterator)
+
+    /**
+     * Same as {@link #argMax(int, List, Comparator)} for sequential source
+     */
+    public <T> int argMax(int threads, Iterable<? extends T> values, Comparator<? super T> comparator) throws InterruptedException {
+        return argBest(threads, chunks(threads, values.spliterator()), comparator);
+    }
+
+    /**
+     * Same as {@link #argMin(int, List, Comparator)} for sequential source
+     */
+    public <T> int argMin(int threads, Iterable<? extends T> values, Comparator<? super T> comparator) throws InterruptedException {
+        return argBest(threads, chunks(threads, values.spliterator()), comparator.reversed());
+    }
+
+    /**
+     * Same as {@link #indexOf(int, List, Predicate)} for sequential source
+     */
+    public <T> int indexOf(int threads, Iterable<? extends T> values, Predicate<? super T> predicate) throws InterruptedException {
+        return indexOf(threads, chunks(threads, values.spliterator()), predicate);
+    }
+
+    /**
+     * Same as {@link #lastIndexOf(int, List, Predicate)} for sequential source
+     */
+    public <T> int lastIndexOf(int threads, Iterable<? extends T> values, Predicate<? super T> predicate) throws InterruptedException {
+        return lastIndexOf(threads, chunks(threads, values.spliterator()), predicate);
+    }
+
+    /**
+     * Same as {@link #sumIndices(int, List, Predicate)} for sequential source
+     */
+    public <T> long sumIndices(int threads, Iterable<? extends T> values, Predicate<? super T> predicate) throws InterruptedException {
+        return sumIndices(threads, chunks(threads, values.spliterator()), predicate);
+    }
+
+    /**
+     * Same as {@link #map(int, List, Function)} for sequential source, result is a view of mapped chunks
+     */
+    public <T, U> List<U> map(int threads, Iterable<? extends T> values, Function<? super T, ? extends U> f) throws InterruptedException {
+        return map(threads, chunks(threads, values.spliterator()), f);
+    }
+
+    /**
+     * Same as {@link #filter(int, List, Predicate)} for sequential source
+     */
+    public <T> List<T> filter(int threads, Iterable<? extends T> values, Predicate<? super T> predicate) throws InterruptedException {
+        return filter(threads, chunks(threads, values.spliterator()), predicate);
+    }
+
+    /**
+     * Same as {@link #join(int, List)} for sequential source
+     */
+    public String join(int threads, Iterable<?> values) throws InterruptedException {
+        return join(threads, chunks(threads, values.spliterator()));
+    }
+
+    /**
+     * Same as {@link #values(int, List)} for sequential source, chunks read by threads are not copied again
+     */
+    public <T> List<T> values(int threads, Iterable<? extends T> values) throws InterruptedException {
+        return new Concatenation<>(parallelOperation(threads, chunks(threads, values.spliterator()),
+                chunk -> Collections.<T>unmodifiableList(chunk.elements)));
+    }
+}
@@ -0,0 +1,91 @@
+package info.kgeorgiy.ja.boin.iterative;
+
+import info.kgeorgiy.ja.boin.benchmark.Benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * Simple throughput and allocation benchmark of {@link IterativeParallelism}.
+ * Usage: IterativeParallelismBenchmark [threads [sizes...]]
+ */
+public class IterativeParallelismBenchmark {
+    private interface Operation {
+        long run(IterativeParallelism ip, int threads, List<Integer> list) throws InterruptedException;
+    }
+
+    private static final Predicate<Integer> EVEN = i -> (i & 1) == 0;
+    private static final Map<String, Operation> OPERATIONS = new LinkedHashMap<>();
+
+    static {
+        OPERATIONS.put("argMax", (ip, threads, list) -> ip.argMax(threads, list, Comparator.naturalOrder()));
+        OPERATIONS.put("argMin", (ip, threads, list) -> ip.argMin(threads, list, Comparator.naturalOrder()));
+        OPERATIONS.put("indexOf", (ip, threads, list) -> ip.indexOf(threads, list, i -> i == -1));
+        OPERATIONS.put("lastIndexOf", (ip, threads, list) -> ip.lastIndexOf(threads, list, i -> i == -1));
+        OPERATIONS.put("indexOfFront", (ip, threads, list) -> {
+            Integer needle = list.get(list.size() / 100);
+            return ip.indexOf(threads, list, needle::equals);
+        });
+        OPERATIONS.put("lastIndexOfBack", (ip, threads, list) -> {
+            Integer needle = list.get(list.size() - 1 - list.size() / 100);
+            return ip.lastIndexOf(threads, list, needle::equals);
+        });
+        OPERATIONS.put("sumIndices", (ip, threads, list) -> ip.sumIndices(threads, list, EVEN));
+    }
+
+    /**
+     * Predicate over list of indexes, that is much more expensive for the first eighth of the list
+     */
+    private static final Operation SKEWED = (ip, threads, list) -> {
+        int heavy = list.size() / 8;
+        return ip.sumIndices(threads, list, i -> i < heavy ? slowEven(i) : EVEN.test(i));
+    };
+
+    private static boolean slowEven(int value) {
+        int hash = value;
+        for (int i = 0; i < 256; i++) {
+            hash = hash * 31 + i;
+        }
+        return ((hash ^ value) & 1) == (hash & 1) && EVEN.test(value);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getTotalThreadAllocatedBytes();
+    }
+
+    private static void measure(String name, Operation operation, IterativeParallelism ip, int threads, List<Integer> list)
+            throws InterruptedException {
+        Benchmarks.Round round = () -> operation.run(ip, threads, list);
+        Benchmarks.warmUp(Benchmarks.WARMUP_ROUNDS, round);
+        long allocated = allocatedBytes();
+        double nanos = Benchmarks.measure(Benchmarks.MEASURE_ROUNDS, round);
+        double bytes = (double) (allocatedBytes() - allocated) / Benchmarks.MEASURE_ROUNDS;
+        System.out.printf(Locale.ROOT, "%-24s %4d %10d %12.1f elements/us %14.1f bytes/op%n",
+                name, threads, list.size(), list.size() * 1000 / nanos, bytes);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args != null && args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        List<Integer> sizes = args != null && args.length > 1
+                ? Arrays.stream(args).skip(1).map(Integer::parseInt).toList()
+                : List.of(10_000, 1_000_000, 10_000_000);
+
+        Map<String, IterativeParallelism> modes = new LinkedHashMap<>();
+        modes.put("static", new IterativeParallelism());
+        modes.put("adaptive", new IterativeParallelism(null, 8));
+
+        Random random = new Random(4875);
+        for (int size : sizes) {
+            List<Integer> list = random.ints(size, 0, Integer.MAX_VALUE).boxed().toList();
+            List<Integer> indexes = IntStream.range(0, size).boxed().toList();
+            for (Map.Entry<String, IterativeParallelism> mode : modes.entrySet()) {
+                for (Map.Entry<String, Operation> entry : OPERATIONS.entrySet()) {
+                    measure(entry.getKey() + "/" + mode.getKey(), entry.getValue(), mode.getValue(), threads, list);
+                }
+                measure("skewedSum/" + mode.getKey(), SKEWED, mode.getValue(), threads, indexes);
+            }
+        }
+    }
+}
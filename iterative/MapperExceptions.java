@@ -0,0 +1,22 @@
+package info.kgeorgiy.ja.boin.iterative;
+
+/**
+ * Rethrowing of exceptions thrown by mapped functions
+ */
+final class MapperExceptions {
+    private MapperExceptions() {
+    }
+
+    /**
+     * Throws given exception of mapped function, if any, without wrapping unchecked ones
+     */
+    static void rethrow(Throwable e) {
+        if (e instanceof RuntimeException runtime) {
+            throw runtime;
+        } else if (e instanceof Error err) {
+            throw err;
+        } else if (e != null) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package info.kgeorgiy.ja.boin.iterative;
+
+import info.kgeorgiy.ja.boin.benchmark.Benchmarks;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Contention benchmark of {@link ParallelMapperImpl} with many cheap tasks.
+ * Usage: ParallelMapperBenchmark [tasks [workers...]]
+ */
+public class ParallelMapperBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURE_ROUNDS = 5;
+
+    private static int task(int value) {
+        int result = value;
+        for (int i = 0; i < 64; i++) {
+            result = result * 31 + i;
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int tasks = args != null && args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        List<Integer> workerCounts = args != null && args.length > 1
+                ? Arrays.stream(args).skip(1).map(Integer::parseInt).toList()
+                : List.of(1, 2, 4, 8, 16, 32, 64);
+
+        List<Integer> values = IntStream.range(0, tasks).boxed().toList();
+        for (int workers : workerCounts) {
+            try (ParallelMapperImpl mapper = new ParallelMapperImpl(workers)) {
+                double nanos = Benchmarks.measure(WARMUP_ROUNDS, MEASURE_ROUNDS,
+                        () -> mapper.map(ParallelMapperBenchmark::task, values).getLast());
+                System.out.printf(Locale.ROOT, "%4d workers %12.1f tasks/ms%n", workers, tasks * 1e6 / nanos);
+            }
+        }
+    }
+}
@@ -2,90 +2,350 @@ package info.kgeorgiy.ja.boin.iterative;
 
 import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
-import java.util.function.Supplier;
+import java.util.function.ObjIntConsumer;
 
 /**
- * Work that will be done in a single thread
+ * Bounded parallel queue for works. Adding to full queue blocks.
+ * Every map call queues at most one work per worker and balances its batches by itself,
+ * so a single monitor is not contended
  */
-class Work<R> {
-    private final Supplier<R> task;
-    private boolean isDone;
-    private Exception e;
-    private R workRes = null;
+class WorksQueue {
+    private final Deque<Runnable> works = new ArrayDeque<>();
+    private final int capacity;
 
-    Work(Supplier<R> task) {
-        this.task = task;
-        isDone = false;
-        e = null;
+    WorksQueue(int capacity) {
+        this.capacity = capacity;
     }
 
-    synchronized void doWork() {
-        try {
-            workRes = task.get();
-        } catch (Exception e) {
-            this.e = e;
+    public synchronized void add(Runnable w) throws InterruptedException {
+        while (works.size() >= capacity) {
+            wait();
         }
-        isDone = true;
-        notify();
+        works.add(w);
+        // both workers and blocked submitters wait on this monitor
+        notifyAll();
     }
 
-    synchronized void waitDone() throws InterruptedException {
-        while (!isDone) {
+    public synchronized Runnable take() throws InterruptedException {
+        while (works.isEmpty()) {
             wait();
         }
+        notifyAll();
+        return works.poll();
+    }
+
+    /**
+     * Returns number of queued works nobody has taken yet
+     */
+    public synchronized int size() {
+        return works.size();
+    }
+}
+
+/**
+ * State of a single map call: arguments are split into batches of consecutive elements on the fly.
+ * Batch size is chosen from measured time per element: cheap functions are applied in big batches,
+ * expensive ones element by element. Batches shrink to the end of the list to balance workers.
+ * Completion is tracked by one counter for the whole call, the last finished part completes {@link #result()}.
+ * Cancelled call stops taking batches, its queued parts finish immediately
+ */
+class MapCall<T, R> implements Runnable {
+    private static final long TARGET_BATCH_NANOS = 50_000;
+
+    private final Function<? super T, ? extends R> f;
+    private final List<? extends T> args;
+    private final Object[] results;
+    private final int workers;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ObjIntConsumer<? super R> listener;
+    private final AtomicInteger remainingParts;
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+    private final CompletableFuture<List<R>> result = new CompletableFuture<>();
+    private final ParallelMapperMetrics metrics;
+    private final ParallelMapperMetrics.MapCallEvent event = new ParallelMapperMetrics.MapCallEvent();
+    private final long created = System.nanoTime();
+    // first batch has single element
+    private volatile long elementNanos = TARGET_BATCH_NANOS;
+
+    /**
+     * @param parts    number of times {@link #run()} will be called
+     * @param listener called with every result and its index as soon as it is ready, may be {@code null}
+     * @param metrics  metrics the call reports to
+     */
+    MapCall(Function<? super T, ? extends R> f, List<? extends T> args, int workers, int parts,
+            ObjIntConsumer<? super R> listener, ParallelMapperMetrics metrics) {
+        this.f = f;
+        this.args = args;
+        this.workers = workers;
+        this.listener = listener;
+        this.metrics = metrics;
+        metrics.mapSubmitted(args.size());
+        event.begin();
+        results = new Object[args.size()];
+        remainingParts = new AtomicInteger(parts);
+        if (parts == 0) {
+            complete();
+        }
+        result.whenComplete((r, e) -> {
+            if (e instanceof CancellationException) {
+                cancel();
+            }
+        });
+    }
+
+    /**
+     * Stops taking new batches, running batches are finished
+     */
+    void cancel() {
+        error.compareAndSet(null, new CancellationException("Map call is cancelled"));
+    }
+
+    private int batchSize(int remaining) {
+        long size = TARGET_BATCH_NANOS / elementNanos;
+        return (int) Math.max(1, Math.min(size, remaining / (2L * workers)));
+    }
+
+    /**
+     * Applies function to batches until all arguments are taken or some application fails
+     */
+    @Override
+    public void run() {
+        try {
+            while (error.get() == null) {
+                int start = next.get();
+                if (start >= args.size()) {
+                    return;
+                }
+                int end = start + batchSize(args.size() - start);
+                if (!next.compareAndSet(start, end)) {
+                    continue;
+                }
+                ParallelMapperMetrics.BatchEvent batchEvent = new ParallelMapperMetrics.BatchEvent();
+                batchEvent.begin();
+                long time = System.nanoTime();
+                for (int i = start; i < end; i++) {
+                    R value = f.apply(args.get(i));
+                    results[i] = value;
+                    if (listener != null) {
+                        listener.accept(value, i);
+                    }
+                }
+                long nanos = System.nanoTime() - time;
+                elementNanos = Math.max(1, nanos / (end - start));
+                metrics.batchFinished(end - start, nanos);
+                if (batchEvent.shouldCommit()) {
+                    batchEvent.elements = end - start;
+                    batchEvent.commit();
+                }
+            }
+        } catch (Throwable e) {
+            // several batches may throw the same instance
+            if (!error.compareAndSet(null, e) && error.get() != e) {
+                error.get().addSuppressed(e);
+            }
+        } finally {
+            if (remainingParts.decrementAndGet() == 0) {
+                complete();
+            }
+        }
     }
 
-    Exception getErr() {
-        return e;
+    @SuppressWarnings("unchecked")
+    private void complete() {
+        metrics.mapFinished(System.nanoTime() - created);
+        Throwable e = error.get();
+        event.end();
+        if (event.shouldCommit()) {
+            event.elements = args.size();
+            event.failed = e != null;
+            event.commit();
+        }
+        if (e != null) {
+            result.completeExceptionally(e);
+        } else {
+            result.complete((List<R>) Arrays.asList(results));
+        }
     }
 
-    R getResult() {
-        return workRes;
+    /**
+     * Returns future completed with results in order of arguments,
+     * or with first exception thrown by function, other ones are suppressed
+     */
+    CompletableFuture<List<R>> result() {
+        return result;
+    }
+
+    /**
+     * Waits until all batches are done
+     *
+     * @return results in order of arguments
+     * @throws RuntimeException first exception thrown by function, other ones are suppressed
+     */
+    List<R> await() throws InterruptedException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            cancel();
+            throw e;
+        } catch (ExecutionException e) {
+            MapperExceptions.rethrow(e.getCause());
+            throw new AssertionError("Unreachable");
+        }
+    }
+
+    /**
+     * Waits until all batches are done, but no longer than given time. Call is cancelled on timeout
+     *
+     * @return results in order of arguments
+     * @throws RuntimeException first exception thrown by function, other ones are suppressed
+     */
+    List<R> await(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        try {
+            return result.get(timeout, unit);
+        } catch (InterruptedException | TimeoutException e) {
+            cancel();
+            throw e;
+        } catch (ExecutionException e) {
+            MapperExceptions.rethrow(e.getCause());
+            throw new AssertionError("Unreachable");
+        }
     }
 }
 
 /**
- * Parallel queue for works
+ * Results of map call given in order of arguments as soon as they are ready
  */
-class WorksQueue {
-    private final Deque<Work<?>> worksOrder = new ArrayDeque<>();
+class OrderedResults<R> implements Iterator<R> {
+    private final Object[] results;
+    private final boolean[] ready;
+    private int next;
+    private Throwable error;
+    private MapCall<?, ?> call;
 
-    public synchronized void add(Work<?> w) {
-        worksOrder.add(w);
-        notify();
+    OrderedResults(int size) {
+        results = new Object[size];
+        ready = new boolean[size];
     }
 
-    public synchronized Work<?> take() throws InterruptedException {
-        while (worksOrder.isEmpty()) {
-            wait();
+    /**
+     * Sets call that produces results, it is cancelled if waiting for a result is interrupted
+     */
+    synchronized void bind(MapCall<?, ?> call) {
+        this.call = call;
+    }
+
+    synchronized void put(R result, int index) {
+        results[index] = result;
+        ready[index] = true;
+        if (index == next) {
+            notifyAll();
         }
-        return worksOrder.pop();
+    }
+
+    synchronized void finish(Throwable e) {
+        error = e;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized boolean hasNext() {
+        return next < results.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public synchronized R next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        while (!ready[next]) {
+            if (error != null) {
+                MapperExceptions.rethrow(error);
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                if (call != null) {
+                    call.cancel();
+                }
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for result", e);
+            }
+        }
+        R result = (R) results[next];
+        results[next++] = null;
+        return result;
     }
 }
 
 /**
- * Maps function over lists in parallel
+ * Maps function over lists in parallel.
+ * Runtime metrics are available by {@link #metrics()} and as JMX bean while mapper is open
  */
 public class ParallelMapperImpl implements ParallelMapper {
+    private static final int DEFAULT_CAPACITY_PER_WORKER = 64;
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
     private final List<Thread> workers;
-    private final WorksQueue queue = new WorksQueue();
+    private final WorksQueue queue;
+    private final ParallelMapperMetrics metrics;
+    private final ObjectName metricsName;
+    private volatile boolean closed;
 
     /**
      * Creates new instance of class
      * Starts {@code threads} that waits for map call
      *
      * @param threads number of threads that will be used to parallel map
+     * @throws IllegalArgumentException if {@code threads} is not positive
      */
     public ParallelMapperImpl(int threads) {
+        this(threads, threads * DEFAULT_CAPACITY_PER_WORKER);
+    }
+
+    /**
+     * Creates new instance of class with bounded queue.
+     * Every map call queues one work for each worker, submitters block while queue is full
+     *
+     * @param threads  number of threads that will be used to parallel map
+     * @param capacity maximal number of queued works
+     * @throws IllegalArgumentException if {@code threads} or {@code capacity} is not positive
+     */
+    public ParallelMapperImpl(int threads, int capacity) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Threads should be positive");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity should be positive");
+        }
         workers = new ArrayList<>(threads);
+        queue = new WorksQueue(capacity);
+        metrics = new ParallelMapperMetrics(queue::size);
+        metricsName = registerMetrics(metrics);
         for (int i = 0; i < threads; i++) {
             workers.add(new Thread(() -> {
                 try {
-                    while (!Thread.interrupted()) {
-                        Work<?> task = queue.take();
-                        task.doWork();
+                    // function may swallow interruption, so closing is also checked by flag
+                    while (!closed && !Thread.interrupted()) {
+                        long idle = System.nanoTime();
+                        Runnable work = queue.take();
+                        long busy = System.nanoTime();
+                        metrics.workerIdle(busy - idle);
+                        try {
+                            work.run();
+                        } catch (Throwable ignored) {
+                            // failures are reported by the work itself, worker should survive anything
+                        } finally {
+                            metrics.workerBusy(System.nanoTime() - busy);
+                        }
                     }
                 } catch (InterruptedException ignored) {
                 } finally {
@@ -96,46 +356,121 @@ public class ParallelMapperImpl implements ParallelMapper {
         workers.forEach(Thread::start);
     }
 
-    @Override
-    public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> args) throws InterruptedException {
-        List<R> result = new ArrayList<>();
-        List<Work<R>> currentWorks = new ArrayList<>();
-
-        // :NOTE: save R in Work
-        for (int i = 0; i < args.size(); i++) {
-            int finalI = i;
-            Work<R> w = new Work<>(() -> f.apply(args.get(finalI)));
-            currentWorks.add(w);
-            queue.add(w);
+    private static ObjectName registerMetrics(ParallelMapperMetrics metrics) {
+        try {
+            ObjectName name = new ObjectName("info.kgeorgiy.ja.boin.iterative:type=ParallelMapper,id="
+                    + INSTANCES.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            return name;
+        } catch (JMException e) {
+            // metrics are still available by metrics()
+            return null;
         }
+    }
+
+    /**
+     * Returns runtime metrics of this mapper
+     */
+    public ParallelMapperMetrics metrics() {
+        return metrics;
+    }
 
-        InterruptedException e = new InterruptedException();
-        currentWorks.forEach(work -> {
+    private <T, R> MapCall<T, R> submit(Function<? super T, ? extends R> f, List<? extends T> args,
+                                        ObjIntConsumer<? super R> listener) throws InterruptedException {
+        int parts = Math.min(workers.size(), args.size());
+        MapCall<T, R> call = new MapCall<>(f, args, workers.size(), parts, listener, metrics);
+        for (int i = 0; i < parts; i++) {
             try {
-                work.waitDone();
-                Exception err = work.getErr();
-                if (err != null) {
-                    e.addSuppressed(err);
-                } else {
-                    result.add(work.getResult());
+                queue.add(call);
+            } catch (InterruptedException e) {
+                call.cancel();
+                // parts that were not queued finish at once
+                for (; i < parts; i++) {
+                    call.run();
                 }
-            } catch (InterruptedException ignored) {
+                throw e;
+            }
+        }
+        return call;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Interrupted call is cancelled: its batches that are not started yet are skipped
+     */
+    @Override
+    public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> args) throws InterruptedException {
+        return this.<T, R>submit(f, args, null).await();
+    }
+
+    /**
+     * Maps function over list, cancelling the call if it is not done in given time
+     *
+     * @throws TimeoutException if results are not ready in time
+     */
+    public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> args, long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        return this.<T, R>submit(f, args, null).await(timeout, unit);
+    }
+
+    /**
+     * Maps function over list without waiting for the result
+     *
+     * @return future of results in order of arguments, completed exceptionally if function fails,
+     * cancelling it cancels the call
+     */
+    public <T, R> CompletableFuture<List<R>> mapAsync(Function<? super T, ? extends R> f, List<? extends T> args)
+            throws InterruptedException {
+        return this.<T, R>submit(f, args, null).result();
+    }
+
+    /**
+     * Maps function over list, passing every result with its index to {@code action} in order of completion.
+     * Action is called in worker threads, so it should be thread-safe and fast
+     *
+     * @return future completed when all results are passed to action, cancelling it cancels the call
+     */
+    public <T, R> CompletableFuture<Void> mapEach(Function<? super T, ? extends R> f, List<? extends T> args,
+                                                  ObjIntConsumer<? super R> action) throws InterruptedException {
+        MapCall<T, R> call = submit(f, args, action);
+        CompletableFuture<Void> done = call.result().thenApply(results -> null);
+        done.whenComplete((r, e) -> {
+            if (e instanceof CancellationException) {
+                call.cancel();
             }
         });
+        return done;
+    }
 
-        if (e.getSuppressed().length > 0) {
-            throw e;
-        }
-        return result;
+    /**
+     * Maps function over list, returned iterator gives results in order of arguments
+     * as soon as they are ready, blocking until the next one is done.
+     * If function fails, iterator throws its exception.
+     * If waiting is interrupted, the call is cancelled, interrupt flag is kept and iterator throws {@link IllegalStateException}
+     */
+    public <T, R> Iterator<R> mapOrdered(Function<? super T, ? extends R> f, List<? extends T> args)
+            throws InterruptedException {
+        OrderedResults<R> results = new OrderedResults<>(args.size());
+        MapCall<T, R> call = submit(f, args, results::put);
+        results.bind(call);
+        call.result().whenComplete((r, e) -> results.finish(e));
+        return results;
     }
 
     @Override
     public void close() {
+        closed = true;
         workers.forEach(Thread::interrupt); // :NOTE: copypaste
 
         try {
             IterativeParallelism.joinThreads(workers);
         } catch (InterruptedException ignored) {
         }
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException ignored) {
+            }
+        }
     }
 }
@@ -0,0 +1,138 @@
+package info.kgeorgiy.ja.boin.iterative;
+
+import jdk.jfr.*;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Histogram of durations with a bucket for every power of two nanoseconds
+ */
+class LatencyHistogram {
+    private final LongAdder[] buckets = new LongAdder[Long.SIZE];
+
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long nanos) {
+        buckets[Long.SIZE - 1 - Long.numberOfLeadingZeros(Math.max(1, nanos))].increment();
+    }
+
+    long[] snapshot() {
+        long[] result = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            result[i] = buckets[i].sum();
+        }
+        return result;
+    }
+}
+
+/**
+ * Runtime metrics of {@link ParallelMapperImpl}.
+ * Counters are striped, so workers do not contend on them and they can be left on
+ */
+public class ParallelMapperMetrics implements ParallelMapperMetricsMBean {
+    private final IntSupplier queueDepth;
+    private final LongAdder mapCalls = new LongAdder();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder idleNanos = new LongAdder();
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+    private final LatencyHistogram mapLatency = new LatencyHistogram();
+
+    /**
+     * JFR event for a single map call
+     */
+    @Name("info.kgeorgiy.ja.boin.iterative.MapCall")
+    @Label("Map call")
+    @Category("ParallelMapper")
+    static final class MapCallEvent extends Event {
+        @Label("Elements")
+        int elements;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    /**
+     * JFR event for a single batch, disabled by default as there are many of them
+     */
+    @Name("info.kgeorgiy.ja.boin.iterative.Batch")
+    @Label("Batch")
+    @Category("ParallelMapper")
+    @Enabled(false)
+    static final class BatchEvent extends Event {
+        @Label("Elements")
+        int elements;
+    }
+
+    ParallelMapperMetrics(IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    void mapSubmitted(int elements) {
+        mapCalls.increment();
+        submitted.add(elements);
+    }
+
+    void mapFinished(long nanos) {
+        mapLatency.record(nanos);
+    }
+
+    void batchFinished(int elements, long nanos) {
+        completed.add(elements);
+        batchLatency.record(nanos);
+    }
+
+    void workerBusy(long nanos) {
+        busyNanos.add(nanos);
+    }
+
+    void workerIdle(long nanos) {
+        idleNanos.add(nanos);
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    @Override
+    public long getMapCalls() {
+        return mapCalls.sum();
+    }
+
+    @Override
+    public long getSubmittedElements() {
+        return submitted.sum();
+    }
+
+    @Override
+    public long getCompletedElements() {
+        return completed.sum();
+    }
+
+    @Override
+    public long getBusyNanos() {
+        return busyNanos.sum();
+    }
+
+    @Override
+    public long getIdleNanos() {
+        return idleNanos.sum();
+    }
+
+    @Override
+    public long[] getBatchLatencyHistogram() {
+        return batchLatency.snapshot();
+    }
+
+    @Override
+    public long[] getMapLatencyHistogram() {
+        return mapLatency.snapshot();
+    }
+}
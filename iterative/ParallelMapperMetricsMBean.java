@@ -0,0 +1,47 @@
+package info.kgeorgiy.ja.boin.iterative;
+
+/**
+ * JMX view of {@link ParallelMapperMetrics}.
+ * Histograms have a bucket for every power of two: {@code i}-th bucket counts durations in {@code [2^i, 2^(i+1))} nanoseconds
+ */
+public interface ParallelMapperMetricsMBean {
+    /**
+     * Returns number of works waiting in the queue
+     */
+    int getQueueDepth();
+
+    /**
+     * Returns number of map calls
+     */
+    long getMapCalls();
+
+    /**
+     * Returns number of elements given to map calls
+     */
+    long getSubmittedElements();
+
+    /**
+     * Returns number of elements the function was applied to
+     */
+    long getCompletedElements();
+
+    /**
+     * Returns total time workers spent running batches
+     */
+    long getBusyNanos();
+
+    /**
+     * Returns total time workers spent waiting for works
+     */
+    long getIdleNanos();
+
+    /**
+     * Returns histogram of batch run times
+     */
+    long[] getBatchLatencyHistogram();
+
+    /**
+     * Returns histogram of map call wall times
+     */
+    long[] getMapLatencyHistogram();
+}
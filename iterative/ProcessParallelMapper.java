@@ -0,0 +1,462 @@
+package info.kgeorgiy.ja.boin.iterative;
+
+import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * State of a single map call of {@link ProcessParallelMapper}
+ */
+class RemoteCall {
+    final Object[] results;
+    private final AtomicInteger remainingBatches;
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    RemoteCall(int size, int batches) {
+        results = new Object[size];
+        remainingBatches = new AtomicInteger(batches);
+        if (batches == 0) {
+            done.countDown();
+        }
+    }
+
+    boolean failed() {
+        return error.get() != null;
+    }
+
+    void fail(Throwable e) {
+        if (!error.compareAndSet(null, e) && error.get() != e) {
+            error.get().addSuppressed(e);
+        }
+    }
+
+    void cancel() {
+        error.compareAndSet(null, new CancellationException("Map call is cancelled"));
+    }
+
+    /**
+     * Marks one batch as finished, successfully or not
+     */
+    void batchDone() {
+        if (remainingBatches.decrementAndGet() == 0) {
+            done.countDown();
+        }
+    }
+
+    Object[] await() throws InterruptedException {
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            cancel();
+            throw e;
+        }
+        MapperExceptions.rethrow(error.get());
+        return results;
+    }
+}
+
+/**
+ * Consecutive arguments of a map call serialized together with the function
+ */
+class RemoteBatch {
+    final RemoteCall call;
+    final int start;
+    final byte[] request;
+    int attempts;
+
+    RemoteBatch(RemoteCall call, int start, byte[] request) {
+        this.call = call;
+        this.start = start;
+        this.request = request;
+    }
+}
+
+/**
+ * Maps function over lists in worker JVMs started on this machine.
+ * Function, arguments and results should be {@link Serializable}, worker JVMs use the classpath of this one.
+ * Non-serializable function or arguments are rejected by {@link #map} with {@link IllegalArgumentException}
+ * before anything is sent. In particular, this class can not serve as mapper of {@link IterativeParallelism},
+ * which maps its own lambdas over chunks that are not serializable.
+ * Every worker process applies function to one batch at a time and is served by its own dispatcher thread.
+ * If worker process dies, it is restarted and its batch is sent again, so function should tolerate
+ * repeated application to the same argument.
+ * <p>
+ * Workers get a random token of the mapper by their standard input, connections without it are rejected.
+ * Replies are deserialized with {@link ObjectInputFilter}, by default only classes of {@code java.base} are allowed,
+ * so mapper of other result or exception types should be given its own filter
+ */
+public class ProcessParallelMapper implements ParallelMapper {
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int BATCHES_PER_WORKER = 4;
+    private static final int CONNECT_TIMEOUT_MILLIS = 60_000;
+    private static final int ACCEPT_POLL_MILLIS = 100;
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 5_000;
+    private static final int TOKEN_LENGTH = 16;
+    private static final ObjectInputFilter JAVA_BASE_FILTER =
+            ObjectInputFilter.Config.createFilter("maxdepth=64;java.base/*;!*");
+
+    private final List<String> jvmOptions;
+    private final ObjectInputFilter resultFilter;
+    private final byte[] token = new byte[TOKEN_LENGTH];
+    private final ServerSocket server;
+    private final Map<Integer, Socket> connected = new HashMap<>();
+    private final AtomicInteger processIds = new AtomicInteger();
+    private final Set<Process> processes = ConcurrentHashMap.newKeySet();
+    private final BlockingQueue<RemoteBatch> batches = new LinkedBlockingQueue<>();
+    private final List<Thread> dispatchers;
+    private volatile boolean closed;
+
+    /**
+     * Worker process and its connection, which is accepted when the first batch is sent
+     */
+    private class Worker {
+        private final int id = processIds.incrementAndGet();
+        private final Process process;
+        private DataInputStream in;
+        private DataOutputStream out;
+
+        Worker() throws IOException {
+            List<String> command = new ArrayList<>();
+            command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+            command.addAll(jvmOptions);
+            command.addAll(List.of("-cp", System.getProperty("java.class.path"),
+                    ProcessParallelMapper.class.getName(),
+                    Integer.toString(server.getLocalPort()), Integer.toString(id)));
+            process = new ProcessBuilder(command)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            processes.add(process);
+            try (OutputStream stdin = process.getOutputStream()) {
+                stdin.write(token);
+            } catch (IOException e) {
+                destroy();
+                throw e;
+            }
+        }
+
+        byte[] execute(byte[] request) throws IOException {
+            if (out == null) {
+                Socket socket = accept(id, process);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            }
+            writeFrame(out, request);
+            return readFrame(in);
+        }
+
+        void destroy() {
+            process.destroyForcibly();
+            processes.remove(process);
+        }
+    }
+
+    /**
+     * Creates new instance with given number of worker processes
+     *
+     * @param workers number of worker JVMs
+     * @throws UncheckedIOException if server socket for workers cannot be opened
+     */
+    public ProcessParallelMapper(int workers) {
+        this(workers, List.of());
+    }
+
+    /**
+     * Creates new instance with given number of worker processes
+     *
+     * @param workers    number of worker JVMs
+     * @param jvmOptions options of worker JVMs, for example {@code -Xmx4g}
+     * @throws UncheckedIOException if server socket for workers cannot be opened
+     */
+    public ProcessParallelMapper(int workers, List<String> jvmOptions) {
+        this(workers, jvmOptions, JAVA_BASE_FILTER);
+    }
+
+    /**
+     * Creates new instance with given number of worker processes and filter of their replies
+     *
+     * @param workers      number of worker JVMs
+     * @param jvmOptions   options of worker JVMs, for example {@code -Xmx4g}
+     * @param resultFilter filter of classes in results and exceptions sent by workers
+     * @throws UncheckedIOException if server socket for workers cannot be opened
+     */
+    public ProcessParallelMapper(int workers, List<String> jvmOptions, ObjectInputFilter resultFilter) {
+        this.jvmOptions = List.copyOf(jvmOptions);
+        this.resultFilter = Objects.requireNonNull(resultFilter);
+        new SecureRandom().nextBytes(token);
+        try {
+            server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress());
+            server.setSoTimeout(ACCEPT_POLL_MILLIS);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open socket for workers", e);
+        }
+        dispatchers = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            dispatchers.add(new Thread(this::dispatch));
+        }
+        dispatchers.forEach(Thread::start);
+    }
+
+    private Worker startWorker() {
+        try {
+            return new Worker();
+        } catch (IOException e) {
+            // started again with the first batch, which gets the error
+            return null;
+        }
+    }
+
+    private void dispatch() {
+        // processes are started at once, so they warm up while first map call is prepared
+        Worker worker = startWorker();
+        try {
+            while (!closed && !Thread.interrupted()) {
+                RemoteBatch batch = batches.take();
+                if (batch.call.failed()) {
+                    batch.call.batchDone();
+                    continue;
+                }
+                byte[] reply;
+                try {
+                    if (worker == null) {
+                        worker = new Worker();
+                    }
+                    reply = worker.execute(batch.request);
+                } catch (IOException e) {
+                    if (worker != null) {
+                        worker.destroy();
+                        worker = null;
+                    }
+                    if (++batch.attempts >= MAX_ATTEMPTS || closed) {
+                        batch.call.fail(new UncheckedIOException("Worker failed " + batch.attempts + " times", e));
+                        batch.call.batchDone();
+                    } else {
+                        batches.add(batch);
+                    }
+                    continue;
+                }
+                try {
+                    Object value = deserialize(reply, resultFilter);
+                    if (value instanceof Object[] results) {
+                        System.arraycopy(results, 0, batch.call.results, batch.start, results.length);
+                    } else {
+                        batch.call.fail((Throwable) value);
+                    }
+                } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                    // rejected by filter or broken reply, worker itself is fine
+                    batch.call.fail(e);
+                }
+                batch.call.batchDone();
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            if (worker != null) {
+                worker.destroy();
+            }
+        }
+    }
+
+    /**
+     * Returns connection of worker process with given id, connections of other workers are kept for them.
+     * Connections that do not send token of this mapper are closed.
+     * Accepts are short, so dead process is noticed at once, and handshake is read without the lock,
+     * so slow connection does not hold other dispatchers and {@link #close()}
+     */
+    private Socket accept(int id, Process process) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MILLIS);
+        while (true) {
+            synchronized (connected) {
+                Socket accepted = connected.remove(id);
+                if (accepted != null) {
+                    return accepted;
+                }
+            }
+            if (!process.isAlive()) {
+                throw new IOException("Worker exited with code " + process.exitValue());
+            }
+            if (System.nanoTime() - deadline > 0) {
+                throw new SocketTimeoutException("Worker did not connect");
+            }
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (SocketTimeoutException e) {
+                continue;
+            }
+            try {
+                socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                int workerId = in.readInt();
+                byte[] workerToken = new byte[TOKEN_LENGTH];
+                in.readFully(workerToken);
+                if (!MessageDigest.isEqual(token, workerToken)) {
+                    throw new IOException("Invalid worker token");
+                }
+                socket.setSoTimeout(0);
+                if (workerId == id) {
+                    return socket;
+                }
+                synchronized (connected) {
+                    if (closed) {
+                        throw new IOException("Mapper is closed");
+                    }
+                    connected.put(workerId, socket);
+                }
+            } catch (IOException e) {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if function or arguments are not serializable
+     * @throws UncheckedIOException     if some batch failed because of worker crashes too many times
+     */
+    @Override
+    public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> args) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("Mapper is closed");
+        }
+        int count = Math.min(args.size(), dispatchers.size() * BATCHES_PER_WORKER);
+        List<RemoteBatch> prepared = new ArrayList<>(count);
+        RemoteCall call = new RemoteCall(args.size(), count);
+        for (int i = 0; i < count; i++) {
+            int start = (int) ((long) args.size() * i / count);
+            int end = (int) ((long) args.size() * (i + 1) / count);
+            try {
+                prepared.add(new RemoteBatch(call, start, serialize(new Object[]{f, new ArrayList<>(args.subList(start, end))})));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Function and arguments should be serializable", e);
+            }
+        }
+        batches.addAll(prepared);
+
+        @SuppressWarnings("unchecked")
+        List<R> results = (List<R>) Arrays.asList(call.await());
+        return results;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        // dispatchers waiting for connection fail at once
+        try {
+            server.close();
+        } catch (IOException ignored) {
+        }
+        dispatchers.forEach(Thread::interrupt);
+        // dispatchers blocked on sockets are woken up by their dead workers
+        processes.forEach(Process::destroyForcibly);
+        try {
+            IterativeParallelism.joinThreads(dispatchers);
+        } catch (InterruptedException ignored) {
+        }
+        for (RemoteBatch batch; (batch = batches.poll()) != null; ) {
+            batch.call.fail(new IllegalStateException("Mapper is closed"));
+            batch.call.batchDone();
+        }
+        synchronized (connected) {
+            for (Socket socket : connected.values()) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static byte[] serialize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] data, ObjectInputFilter filter) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            if (filter != null) {
+                in.setObjectInputFilter(filter);
+            }
+            return in.readObject();
+        }
+    }
+
+    private static void writeFrame(DataOutputStream out, byte[] data) throws IOException {
+        out.writeInt(data.length);
+        out.write(data);
+        out.flush();
+    }
+
+    private static byte[] readFrame(DataInputStream in) throws IOException {
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return data;
+    }
+
+    /**
+     * Runs worker process, which connects to the mapper, applies function to received batches
+     * and replies with array of results or with thrown exception.
+     * Token of the mapper is read from standard input.
+     * Usage: ProcessParallelMapper port id
+     */
+    public static void main(String[] args) throws IOException {
+        if (args == null || args.length != 2 || args[0] == null || args[1] == null) {
+            System.err.println("Usage: ProcessParallelMapper port id");
+            return;
+        }
+        byte[] token = System.in.readNBytes(TOKEN_LENGTH);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0]))) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(Integer.parseInt(args[1]));
+            out.write(token);
+            out.flush();
+            while (true) {
+                byte[] request;
+                try {
+                    request = readFrame(in);
+                } catch (EOFException e) {
+                    return;
+                }
+                writeFrame(out, apply(request));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static byte[] apply(byte[] request) throws IOException {
+        try {
+            Object[] task = (Object[]) deserialize(request, null);
+            Function<Object, Object> f = (Function<Object, Object>) task[0];
+            List<Object> args = (List<Object>) task[1];
+            Object[] results = new Object[args.size()];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = f.apply(args.get(i));
+            }
+            return serialize(results);
+        } catch (Throwable e) {
+            // errors of function, like StackOverflowError, are its failures too
+            try {
+                return serialize(e);
+            } catch (IOException notSerializable) {
+                return serialize(new RuntimeException(e.toString()));
+            }
+        }
+    }
+}
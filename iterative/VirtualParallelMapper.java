@@ -0,0 +1,119 @@
+package info.kgeorgiy.ja.boin.iterative;
+
+import info.kgeorgiy.java.advanced.mapper.ParallelMapper;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Maps function over lists running every application on its own virtual thread.
+ * Suits functions that block on I/O, where fixed pool of {@link ParallelMapperImpl} is too small
+ */
+public class VirtualParallelMapper implements ParallelMapper {
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore permits;
+
+    /**
+     * Creates new instance that runs all applications of a map call at once
+     */
+    public VirtualParallelMapper() {
+        this(0);
+    }
+
+    /**
+     * Creates new instance with limited number of applications running at once
+     *
+     * @param maxConcurrency maximal number of running applications for all map calls, non-positive for unlimited
+     */
+    public VirtualParallelMapper(int maxConcurrency) {
+        permits = maxConcurrency > 0 ? new Semaphore(maxConcurrency) : null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Interrupted call is cancelled: applications that are not started yet are skipped,
+     * running ones are interrupted and awaited before {@link InterruptedException} is thrown
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T, R> List<R> map(Function<? super T, ? extends R> f, List<? extends T> args) throws InterruptedException {
+        Object[] results = new Object[args.size()];
+        CountDownLatch done = new CountDownLatch(args.size());
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Set<Thread> running = ConcurrentHashMap.newKeySet();
+        AtomicBoolean cancelled = new AtomicBoolean();
+
+        int started = 0;
+        try {
+            for (; started < args.size(); started++) {
+                if (permits != null) {
+                    permits.acquire();
+                }
+                int index = started;
+                executor.execute(() -> {
+                    // registered before the check, so cancellation either skips or interrupts the application
+                    running.add(Thread.currentThread());
+                    try {
+                        if (!cancelled.get()) {
+                            results[index] = f.apply(args.get(index));
+                        }
+                    } catch (Throwable e) {
+                        if (!error.compareAndSet(null, e) && error.get() != e) {
+                            error.get().addSuppressed(e);
+                        }
+                    } finally {
+                        running.remove(Thread.currentThread());
+                        if (permits != null) {
+                            permits.release();
+                        }
+                        done.countDown();
+                    }
+                });
+            }
+            done.await();
+        } catch (InterruptedException e) {
+            cancelled.set(true);
+            running.forEach(Thread::interrupt);
+            for (int i = started; i < args.size(); i++) {
+                done.countDown();
+            }
+            // started applications should not write results after map returns
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException ignored) {
+                    // exception below reports interruption anyway
+                }
+            }
+            throw e;
+        }
+        MapperExceptions.rethrow(error.get());
+        return (List<R>) Arrays.asList(results);
+    }
+
+    /**
+     * Interrupts running applications and waits for them, interrupt flag of the caller is kept
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}